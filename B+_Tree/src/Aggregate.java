@@ -0,0 +1,26 @@
+// The number of records in one group of an aggregate and the range of their ids
+public final class Aggregate {
+    private final long count;
+    private final long minId;
+    private final long maxId;
+
+    Aggregate(long count, long minId, long maxId) {
+        this.count = count;
+        this.minId = minId;
+        this.maxId = maxId;
+    }
+
+    // The group of both aggregates, for groups whose stored bytes differ but decode to the same text
+    Aggregate combine(Aggregate other) {
+        return new Aggregate(count + other.count, Math.min(minId, other.minId), Math.max(maxId, other.maxId));
+    }
+
+    public long getCount() { return count; }
+    public long getMinId() { return minId; }
+    public long getMaxId() { return maxId; }
+
+    @Override
+    public String toString() {
+        return count + " record(s), IDs " + minId + " to " + maxId;
+    }
+}
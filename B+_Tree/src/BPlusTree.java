@@ -1,244 +1,855 @@
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
 import java.util.List;
-
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// B+ tree of long keys and values stored in the pages of an index file.
+// Lookups, scans and inserts may run from many threads at once. They move down the tree with latch crabbing:
+// a child's latch is taken before the parent's is released. Inserts first descend with read latches and only
+// write-latch the leaf; if the leaf could split, the insert restarts and keeps write latches on the part of the path
+// that the split can reach. Bulk loads and flushes take the whole tree exclusively.
+// Internal nodes hold plain 8 byte keys and children; leaves are compressed as described in PackedLeaf and hold as
+// many entries as their packed size allows, several times the order for dense keys.
 class BPlusTree {
-    private static final int M = 4;  // This is a small tree order for simplicity
-    private Node root; // The root node of the B+ Tree
+    static final int DEFAULT_PAGE_SIZE = 4096; // Size of every page in the index file
+    static final int DEFAULT_POOL_PAGES = 1024; // Number of pages kept in memory by default
+    static final double DEFAULT_FILL_FACTOR = 0.9; // Share of every node filled by the bulk loader, leaving room for later inserts
+    private static final int MAGIC = 0x42505432; // Marks a paged index file with packed leaves ("BPT2")
+    private static final long HEADER_PAGE = 0; // Page holding the tree metadata
+
+    // Layout of an internal node page: a small header followed by the key array and the child array.
+    // Leaves share the first three fields, the rest of a leaf page is laid out by PackedLeaf.
+    private static final int NODE_TYPE = 0; // 1 for a leaf, 0 for an internal node
+    private static final int NODE_COUNT = 4; // Number of keys in the node
+    private static final int NODE_NEXT = 8; // Page id of the next leaf in key order, 0 for the last leaf
+    private static final int NODE_KEYS = 16; // Start of the key array
+
+    private volatile long rootPage; // Page id of the root node of the B+ Tree
+    private volatile int height; // Number of levels, 1 when the root is a leaf
     private RandomAccessFile indexFile; // File used to store the B+ Tree index data
+    private BufferPool pool; // Pages of the index file cached in memory
+    private int pageSize; // Size of every page in the index file
+    private int order; // Maximum number of keys in an internal node before it splits
+    private int slots; // Key slots per page, one more than the order so a node can overflow before splitting
+    private int valuesStart; // Start of the child array in an internal node page
+    private int leafLimit; // Maximum number of entries in a leaf, whatever their packed size
+    private final AtomicLong pageCount = new AtomicLong(); // Number of pages in the file, which is also the id of the next new page
+    private final AtomicLong entryCount = new AtomicLong(); // Number of keys stored in the tree
+    private final AtomicLong leafBytes = new AtomicLong(); // Bytes taken by the packed entries of all leaves
+    private boolean clean; // Whether the file on disk matches the tree, cleared before the first change after a flush
+    private boolean cleanOnOpen; // Whether the file was closed cleanly the last time it was used
+    private final ReentrantReadWriteLock rootLatch = new ReentrantReadWriteLock(); // Guards the root page id and height
+    private final ReentrantReadWriteLock treeLock = new ReentrantReadWriteLock(); // Shared by normal operations, exclusive for bulk loads and flushes
+    private volatile int version; // Bumped by every bulk load, so scans notice the pages were rewritten under them
+    private final LongAdder leafSplits = new LongAdder();
+    private final LongAdder internalSplits = new LongAdder();
 
     // Constructor that initializes the B+ tree using a file
     public BPlusTree(File file) throws IOException {
+        this(file, DEFAULT_POOL_PAGES);
+    }
+
+    // Constructor that initializes the B+ tree using a file and a buffer pool of the given number of pages
+    public BPlusTree(File file, int poolPages) throws IOException {
+        this(file, poolPages, DEFAULT_PAGE_SIZE, 0);
+    }
+
+    // Constructor that also picks the page size and order of a new tree, an order of 0 fills the whole page
+    public BPlusTree(File file, int poolPages, int pageSize, int order) throws IOException {
         this.indexFile = new RandomAccessFile(file, "rw");
         // Initialize or load the tree depending on whether the file is empty
         if (indexFile.length() == 0) {
-            initialize();
+            initialize(poolPages, pageSize, order);
         } else {
-            loadTree();
+            loadTree(poolPages);
         }
     }
 
+    // Largest order that fits in a page of the given size
+    static int maxOrder(int pageSize) {
+        return (pageSize - NODE_KEYS - 8) / 16 - 1; // Every slot holds a key and a child, internal nodes need one extra child
+    }
+
     // Initializes a new tree with a root as a leaf node
-    private void initialize() throws IOException {
-        root = new LeafNode();
-        saveTree();
+    private void initialize(int poolPages, int pageSize, int order) throws IOException {
+        int limit = maxOrder(pageSize);
+        if (limit < 3) throw new IllegalArgumentException("Page size " + pageSize + " is too small for an index node");
+        if (order > limit) throw new IllegalArgumentException("Order " + order + " does not fit in a " + pageSize + " byte page");
+        setLayout(pageSize, order <= 0 ? limit : Math.max(order, 3));
+        pool = new BufferPool(indexFile.getChannel(), pageSize, poolPages);
+        pageCount.set(1); // Page 0 is reserved for the header
+        entryCount.set(0);
+        leafBytes.set(0);
+        height = 1;
+        rootPage = allocatePage();
+        writeLeaf(rootPage, new long[0], new long[0], 0, 0); // The first root is an empty leaf
+        cleanOnOpen = true;
+        flush(); // Write the empty tree right away so the file is never left without a header
     }
 
-    // Loads the tree from the file by reading the root node
-    private void loadTree() throws IOException {
+    // Loads the tree from the file by reading the header page
+    private void loadTree(int poolPages) throws IOException {
         indexFile.seek(0); // Start reading from the beginning of the file
-        long rootOffset = indexFile.readLong(); // Read the root node's offset
-        root = readNode(rootOffset);  // Read the node from the offset
+        if (indexFile.length() < 32 || indexFile.readInt() != MAGIC) {
+            throw new IOException("Index file is not in the current paged format, delete it to rebuild the index");
+        }
+        int pageSize = indexFile.readInt(); // The page size is fixed when the file is created
+        pool = new BufferPool(indexFile.getChannel(), pageSize, poolPages);
+        BufferPool.Page header = pool.pin(HEADER_PAGE);
+        rootPage = header.buffer.getLong(8); // Read the root node's page
+        pageCount.set(header.buffer.getLong(16));
+        int order = header.buffer.getInt(24);
+        entryCount.set(header.buffer.getLong(32));
+        clean = header.buffer.getInt(40) != 0;
+        cleanOnOpen = clean;
+        height = header.buffer.getInt(44);
+        leafBytes.set(header.buffer.getLong(48));
+        pool.unpin(header, false);
+        setLayout(pageSize, order);
+        if (height == 0) height = measureHeight(); // Files written before the height was stored
     }
 
-    // Saves the tree root's offset in the file
-    private void saveTree() throws IOException {
-        saveNode(root);
-        indexFile.seek(0); // Move to the beginning of the file
-        indexFile.writeLong(root.offset); // Write the root's offset
-    } 
+    // Counts the levels by following the leftmost path down to a leaf
+    private int measureHeight() throws IOException {
+        int levels = 1;
+        long pageId = rootPage;
+        while (true) {
+            BufferPool.Page page = pool.pin(pageId);
+            boolean leaf = page.buffer.get(NODE_TYPE) != 0;
+            long child = page.buffer.getLong(valuesStart);
+            pool.unpin(page, false);
+            if (leaf) return levels;
+            pageId = child;
+            levels++;
+        }
+    }
 
-    // Reads a node from the file at a given offset
-    private Node readNode(long offset) throws IOException {
-        indexFile.seek(offset);
-        boolean isLeaf = indexFile.readBoolean(); // Read whether the node is a leaf
-        // Return a new node based on whether it is a leaf or internal node
-        return isLeaf ? new LeafNode(indexFile, offset) : new InternalNode(indexFile, offset);
+    // Derives the node layout from the page size and order
+    private void setLayout(int pageSize, int order) {
+        this.pageSize = pageSize;
+        this.order = order;
+        this.slots = order + 1;
+        this.valuesStart = NODE_KEYS + slots * 8;
+        this.leafLimit = order < maxOrder(pageSize) ? order : PackedLeaf.maxEntries(pageSize); // A chosen order limits leaves too
     }
 
-    // Saves a node's data to the file
-    private void saveNode(Node node) throws IOException {
-        indexFile.seek(node.offset); // Set the file pointer to the node's offset
-        indexFile.writeBoolean(node.isLeaf()); // Write whether the node is a leaf
-        node.write(indexFile); // Write the node's internal data
+    // Saves the tree metadata in the header page
+    private synchronized void saveTree() throws IOException {
+        BufferPool.Page header = pool.pin(HEADER_PAGE);
+        header.buffer.putInt(0, MAGIC);
+        header.buffer.putInt(4, pageSize);
+        header.buffer.putLong(8, rootPage); // Write the root's page
+        header.buffer.putLong(16, pageCount.get());
+        header.buffer.putInt(24, order);
+        header.buffer.putLong(32, entryCount.get());
+        header.buffer.putInt(40, clean ? 1 : 0);
+        header.buffer.putInt(44, height);
+        header.buffer.putLong(48, leafBytes.get());
+        pool.unpin(header, true);
     }
 
-    // Inserts a key and value in the tree and handles splitting
+    // Reserves a new page at the end of the file
+    private long allocatePage() {
+        return pageCount.getAndIncrement();
+    }
+
+    // Inserts a key and value in the tree and handles splitting, an existing key has its value replaced
     public void insert(long key, long value) throws IOException {
-        Split split = root.insert(key, value); // Attempt to insert the key-value pair
-        if (split != null) {
-            // If root splits, create a new root
-            InternalNode newRoot = new InternalNode();
-            newRoot.keys.add(split.key);
-            newRoot.children.add(root.offset);
-            newRoot.children.add(split.right.offset);
-            root = newRoot;
-            saveNode(split.right); // Save the new right node
-            saveTree(); // Save the new tree structure
+        treeLock.readLock().lock();
+        try {
+            beginUpdate(); // Inside the tree lock, so a flush cannot mark the file clean before this insert is done
+            while (!insertIntoSafeLeaf(key, value) && !insertWithSplits(key, value)) {
+                // The leaf was full and has been split, try again in the half that now covers the key
+            }
+        } finally {
+            treeLock.readLock().unlock();
         }
-        saveNode(root); // Save the root node
     }
 
     // Searches for a value by key
     public Long search(long key) throws IOException {
-        return root.search(key);
+        treeLock.readLock().lock();
+        try {
+            BufferPool.Page page = latchRoot(false);
+            while (true) {
+                ByteBuffer buffer = page.buffer;
+                int count = buffer.getInt(NODE_COUNT);
+                if (buffer.get(NODE_TYPE) != 0) {
+                    int loc = PackedLeaf.lowerBound(buffer, 0, count, key);
+                    Long value = loc < count && PackedLeaf.key(buffer, loc) == key ? PackedLeaf.value(buffer, loc) : null;
+                    release(page, false, false);
+                    return value;
+                }
+                long child = buffer.getLong(valuesStart + upperBound(buffer, count, key) * 8); // Continue in the child covering the key
+                page = crab(page, child, false);
+            }
+        } finally {
+            treeLock.readLock().unlock();
+        }
     }
 
-    // Closes the file used by the B+ Tree
-    public void close() throws IOException {
-        indexFile.close();
+    // Looks up many keys in one pass. The keys must be in ascending order; values[i] receives the value of keys[i],
+    // or -1 when the key is absent. Consecutive keys that fall into the same leaf are answered without descending again.
+    public void searchAll(long[] keys, long[] values) throws IOException {
+        treeLock.readLock().lock();
+        try {
+            int i = 0;
+            while (i < keys.length) {
+                BufferPool.Page leaf = findLeaf(keys[i]);
+                try {
+                    ByteBuffer buffer = leaf.buffer;
+                    int count = buffer.getInt(NODE_COUNT);
+                    long last = count > 0 ? PackedLeaf.key(buffer, count - 1) : Long.MIN_VALUE; // Larger keys belong to later leaves
+                    int loc = 0;
+                    do {
+                        loc = PackedLeaf.lowerBound(buffer, loc, count, keys[i]); // Keys only grow, so search from the previous slot
+                        values[i] = loc < count && PackedLeaf.key(buffer, loc) == keys[i] ? PackedLeaf.value(buffer, loc) : -1;
+                        i++;
+                    } while (i < keys.length && keys[i] <= last);
+                } finally {
+                    release(leaf, false, false);
+                }
+            }
+        } finally {
+            treeLock.readLock().unlock();
+        }
     }
 
-    // Base class for tree nodes
-    abstract class Node {
-        List<Long> keys; // Keys stored in the node
-        long offset; // Offset of the node in the file
+    // Returns the entries with keys in [from, to] in ascending key order, reading one leaf at a time along the leaf chain
+    public Iterator<Entry> scan(long from, long to) throws IOException {
+        return new RangeIterator(from, to);
+    }
 
-        abstract boolean isLeaf();
+    // Replaces the whole tree with the given entries, which must arrive in ascending key order.
+    // Leaves and internal levels are built bottom-up in a single pass, each node filled to the fill factor: internal
+    // nodes by key count and leaves by their packed size. Runs of equal keys keep the last value, matching what
+    // repeated inserts would leave behind.
+    public void bulkLoad(EntrySource entries, double fillFactor) throws IOException {
+        if (fillFactor <= 0 || fillFactor > 1) throw new IllegalArgumentException("Fill factor must be in (0, 1]");
+        int perNode = Math.max(2, (int) (order * fillFactor)); // Keys placed in every internal node
+        int perLeaf = Math.max(2, (int) (leafLimit * fillFactor)); // Most entries placed in a leaf
+        int leafSpace = (int) (PackedLeaf.space(pageSize) * fillFactor); // Packed bytes placed in a leaf
+
+        treeLock.writeLock().lock();
+        try {
+            beginUpdate(); // The header on disk stays marked dirty until the new tree is complete
+            version++;
+            pool.clear(); // The old pages are discarded, the file is rewritten from the first page
+            pageCount.set(1);
+            entryCount.set(0);
+            leafBytes.set(0);
+            buildBottomUp(new LastOfEachKey(entries), perNode, perLeaf, leafSpace);
+            flush();
+            indexFile.setLength(pageCount.get() * pageSize); // Drop pages of the old tree past the new one
+        } finally {
+            treeLock.writeLock().unlock();
+        }
+    }
+
+    // Writes the leaves and internal levels of a bulk load from entries with distinct keys, called with the tree held
+    // exclusively. The entries of a leaf are collected until the next one would take it past its share of the page.
+    private void buildBottomUp(EntrySource entries, int perNode, int perLeaf, int leafSpace) throws IOException {
+
+        List<Long> levels = new ArrayList<>(); // Page of the internal node being filled on every level above the leaves
+        List<Long> firstKeys = new ArrayList<>(); // Smallest key below the node being filled on every level
+        long[] keys = new long[perLeaf];
+        long[] values = new long[perLeaf];
+        long leafPage = allocatePage();
+        boolean chained = false; // Whether the leaf being filled has a predecessor
+        int count = 0;
+        long minValue = 0;
+        long maxValue = 0;
+        long valueBits = 0; // Bits set in any distance from the leaf's first value, which gives the common shift
+        while (entries.next()) {
+            long key = entries.key();
+            long value = entries.value();
+            if (count > 0 && key < keys[count - 1]) throw new IllegalArgumentException("Bulk load keys are not sorted at key " + key);
+            if (count > 0) {
+                long span = Math.max(maxValue, value) - Math.min(minValue, value);
+                int entryBytes = PackedLeaf.entryBytes(key - keys[0], span, valueBits | (value - values[0]));
+                if (count == perLeaf || (count + 1) * entryBytes > leafSpace) {
+                    // The leaf is full, chain a new one after it and hand the finished one to its parent
+                    long nextPage = allocatePage();
+                    writeLeaf(leafPage, keys, values, count, nextPage);
+                    addChild(levels, firstKeys, 0, keys[0], leafPage, perNode);
+                    leafPage = nextPage;
+                    chained = true;
+                    count = 0;
+                }
+            }
+            if (count == 0) {
+                minValue = value;
+                maxValue = value;
+                valueBits = 0;
+            } else {
+                minValue = Math.min(minValue, value);
+                maxValue = Math.max(maxValue, value);
+                valueBits |= value - values[0];
+            }
+            keys[count] = key;
+            values[count++] = value;
+            entryCount.incrementAndGet();
+        }
+        writeLeaf(leafPage, keys, values, count, 0);
+
+        // Close the last node of every level, the last level holds the root
+        rootPage = leafPage;
+        height = 1;
+        if (chained) {
+            addChild(levels, firstKeys, 0, keys[0], leafPage, perNode);
+            for (int level = 0; level < levels.size(); level++) {
+                if (level == levels.size() - 1) {
+                    rootPage = levels.get(level);
+                    height = levels.size() + 1;
+                } else {
+                    addChild(levels, firstKeys, level + 1, firstKeys.get(level), levels.get(level), perNode);
+                }
+            }
+        }
+    }
 
-        abstract Long search(long key) throws IOException;
+    // Writes a new leaf page holding the first entries of the arrays
+    private void writeLeaf(long pageId, long[] keys, long[] values, int count, long next) throws IOException {
+        BufferPool.Page leaf = pool.pinNew(pageId);
+        leaf.buffer.put(NODE_TYPE, (byte) 1);
+        leaf.buffer.putLong(NODE_NEXT, next);
+        if (!PackedLeaf.encode(leaf.buffer, keys, values, 0, count)) {
+            pool.unpin(leaf, false);
+            throw new IllegalStateException("Leaf entries do not fit in a page");
+        }
+        leafBytes.addAndGet(PackedLeaf.usedBytes(leaf.buffer));
+        pool.unpin(leaf, true);
+    }
 
-        abstract Split insert(long key, long value) throws IOException;
+    // Appends a finished child to the node being filled on a level, finishing that node first when it is full
+    private void addChild(List<Long> levels, List<Long> firstKeys, int level, long firstKey, long child, int perNode) throws IOException {
+        if (level < levels.size()) {
+            BufferPool.Page node = pool.pin(levels.get(level));
+            int count = node.buffer.getInt(NODE_COUNT);
+            if (count < perNode) {
+                node.buffer.putLong(NODE_KEYS + count * 8, firstKey); // The child's smallest key separates it from its left sibling
+                node.buffer.putLong(valuesStart + (count + 1) * 8, child);
+                node.buffer.putInt(NODE_COUNT, count + 1);
+                pool.unpin(node, true);
+                return;
+            }
+            pool.unpin(node, false);
+            addChild(levels, firstKeys, level + 1, firstKeys.get(level), node.id, perNode);
+        }
+        long pageId = allocatePage();
+        BufferPool.Page node = pool.pinNew(pageId);
+        node.buffer.put(NODE_TYPE, (byte) 0);
+        node.buffer.putLong(valuesStart, child); // A new node starts with a single child and no keys
+        pool.unpin(node, true);
+        if (level < levels.size()) {
+            levels.set(level, pageId);
+            firstKeys.set(level, firstKey);
+        } else {
+            levels.add(pageId);
+            firstKeys.add(firstKey);
+        }
+    }
 
-        abstract void write(RandomAccessFile file) throws IOException;
+    // Number of keys stored in the tree
+    public long size() {
+        return entryCount.get();
     }
 
-    // Represents a split operation result
-    class Split {
-        long key; // The key at which the split occurs
-        Node right; // The new right node after the split
+    // Number of levels in the tree, 1 when the root is a leaf
+    public int getHeight() {
+        return height;
+    }
 
+    // Maximum number of keys in an internal node, leaves hold as many as fit once packed
+    public int getOrder() {
+        return order;
+    }
 
-        Split(long key, Node right) {
-            this.key = key;
-            this.right = right;
+    // Number of leaves, counted from the internal nodes one level above them rather than by visiting every leaf.
+    // Inserts running at the same time may leave the count slightly behind.
+    public long leafCount() throws IOException {
+        treeLock.readLock().lock(); // A bulk load must not rewrite the pages during the walk
+        try {
+            long root;
+            int levels;
+            rootLatch.readLock().lock();
+            try {
+                root = rootPage;
+                levels = height;
+            } finally {
+                rootLatch.readLock().unlock();
+            }
+            if (levels == 1) return 1;
+            List<Long> level = new ArrayList<>();
+            level.add(root);
+            for (int depth = 1; depth < levels - 1; depth++) {
+                List<Long> children = new ArrayList<>();
+                for (long pageId : level) {
+                    BufferPool.Page page = latch(pageId, false);
+                    try {
+                        int count = page.buffer.getInt(NODE_COUNT);
+                        for (int i = 0; i <= count; i++) {
+                            children.add(page.buffer.getLong(valuesStart + i * 8));
+                        }
+                    } finally {
+                        release(page, false, false);
+                    }
+                }
+                level = children;
+            }
+            long leaves = 0;
+            for (long pageId : level) {
+                BufferPool.Page page = latch(pageId, false);
+                leaves += page.buffer.getInt(NODE_COUNT) + 1; // An internal node with n keys has n + 1 children
+                release(page, false, false);
+            }
+            return leaves;
+        } finally {
+            treeLock.readLock().unlock();
         }
     }
 
-    // Internal node class
-    class InternalNode extends Node {
-        List<Long> children; // Children pointers
+    // Share of the leaf page space taken by packed entries, between 0 and 1
+    public double fillFactor() throws IOException {
+        return (double) leafBytes.get() / ((double) leafCount() * PackedLeaf.space(pageSize));
+    }
 
-        InternalNode() throws IOException {
-            this.offset = indexFile.length(); // Set offset at the end of the file
-            keys = new ArrayList<>();
-            children = new ArrayList<>();
-        }
+    // Number of nodes visited by lookups, scans and inserts, whether they were cached or read from the file
+    public long nodeReads() {
+        return pool.pins();
+    }
+
+    // Number of node modifications, a node changed twice before it is written back counts twice
+    public long nodeWrites() {
+        return pool.modifications();
+    }
+
+    public long leafSplits() {
+        return leafSplits.sum();
+    }
 
-        InternalNode(RandomAccessFile file, long offset) throws IOException {
-            this.offset = offset;
-            keys = new ArrayList<>();
-            children = new ArrayList<>();
-            int keySize = file.readInt(); // Read the number of keys
-            for (int i = 0; i < keySize; i++) {
-                keys.add(file.readLong());
-                children.add(file.readLong()); 
+    public long internalSplits() {
+        return internalSplits.sum();
+    }
+
+    // Bytes read from and written to the index file
+    FileStats fileStats() {
+        return pool.stats();
+    }
+
+    // Whether the index file was flushed after its last change when it was opened. A tree that was not
+    // may have been cut off in the middle of a split and should be rebuilt from the records.
+    public boolean wasCleanOnOpen() {
+        return cleanOnOpen;
+    }
+
+    // Writes all modified pages back to the index file and forces them to disk, then marks the file clean
+    public void flush() throws IOException {
+        treeLock.writeLock().lock(); // No page may change while the tree is written out
+        try {
+            synchronized (this) {
+                saveTree();
+                pool.flush();
+                indexFile.getChannel().force(false);
+                if (!clean) {
+                    clean = true; // Only set once every page is on disk
+                    saveTree();
+                    pool.flush();
+                    indexFile.getChannel().force(false);
+                }
             }
-            children.add(file.readLong()); // Read the last child
+        } finally {
+            treeLock.writeLock().unlock();
         }
+    }
 
-        boolean isLeaf() {
-            return false;
+    // Marks the file dirty on disk before the first change since the last flush, so a crash after it is detected
+    private synchronized void beginUpdate() throws IOException {
+        if (!clean) return;
+        clean = false;
+        saveTree();
+        pool.flush(); // Only the header is dirty at this point
+        indexFile.getChannel().force(false);
+    }
+
+    // Closes the file used by the B+ Tree
+    public void close() throws IOException {
+        flush();
+        indexFile.close();
+    }
+
+    // Latches the root page for reading or writing and returns it pinned
+    private BufferPool.Page latchRoot(boolean write) throws IOException {
+        rootLatch.readLock().lock(); // Keeps the root from being replaced until its page is latched
+        try {
+            return latch(rootPage, write);
+        } finally {
+            rootLatch.readLock().unlock();
         }
+    }
 
-        Long search(long key) throws IOException {
-            // Binary search on keys and find appropriate child node to continue searching
-            int loc = 0;
-            while (loc < keys.size() && key >= keys.get(loc)) {
-                loc++;
-            }
-            return readNode(children.get(loc)).search(key);
+    // Pins a page and takes its latch
+    private BufferPool.Page latch(long pageId, boolean write) throws IOException {
+        BufferPool.Page page = pool.pin(pageId);
+        if (write) page.latch.writeLock().lock();
+        else page.latch.readLock().lock();
+        return page;
+    }
+
+    // Releases a page's latch and then its pin
+    private void release(BufferPool.Page page, boolean write, boolean dirty) {
+        if (write) page.latch.writeLock().unlock();
+        else page.latch.readLock().unlock();
+        pool.unpin(page, dirty);
+    }
+
+    // Latches a child and only then releases its read-latched parent
+    private BufferPool.Page crab(BufferPool.Page parent, long child, boolean writeChild) throws IOException {
+        try {
+            return latch(child, writeChild);
+        } finally {
+            release(parent, false, false);
+        }
+    }
+
+    // Descends with read latches and write-latches only the leaf. Returns false without changing anything
+    // when the entry does not fit in the leaf, since the split would need latches on the parents as well.
+    private boolean insertIntoSafeLeaf(long key, long value) throws IOException {
+        BufferPool.Page page;
+        int level;
+        rootLatch.readLock().lock();
+        try {
+            level = height;
+            page = latch(rootPage, level == 1);
+        } finally {
+            rootLatch.readLock().unlock();
         }
+        while (level > 1) {
+            ByteBuffer buffer = page.buffer;
+            long child = buffer.getLong(valuesStart + upperBound(buffer, buffer.getInt(NODE_COUNT), key) * 8);
+            level--;
+            page = crab(page, child, level == 1); // The leaf is latched for writing
+        }
+        boolean stored = storeInLeaf(page, key, value);
+        release(page, true, stored);
+        return stored;
+    }
 
-        Split insert(long key, long value) throws IOException {
-            // Find correct child, insert and handle split if necessary
-            int loc = 0;
-            while (loc < keys.size() && key >= keys.get(loc)) {
-                loc++;
+    // Descends with write latches, releasing every latch above a node that has room for one more key,
+    // so the latches still held are exactly the nodes a split can reach. Returns false when the leaf had to be
+    // split before the entry could be stored, in which case the caller tries again.
+    private boolean insertWithSplits(long key, long value) throws IOException {
+        List<BufferPool.Page> path = new ArrayList<>(); // Write-latched pages from the highest unsafe node down
+        List<Integer> slots = new ArrayList<>(); // Child followed from each page in the path
+        rootLatch.writeLock().lock();
+        boolean holdingRoot = true;
+        int modifiedFrom = Integer.MAX_VALUE; // Pages from this position of the path on were changed
+        try {
+            BufferPool.Page page = latch(rootPage, true);
+            path.add(page);
+            while (page.buffer.get(NODE_TYPE) == 0) {
+                ByteBuffer buffer = page.buffer;
+                int loc = upperBound(buffer, buffer.getInt(NODE_COUNT), key);
+                page = latch(buffer.getLong(valuesStart + loc * 8), true);
+                if (hasRoom(page, key, value)) {
+                    for (BufferPool.Page ancestor : path) {
+                        release(ancestor, true, false); // A split below stops at this node
+                    }
+                    path.clear();
+                    slots.clear();
+                    if (holdingRoot) {
+                        rootLatch.writeLock().unlock();
+                        holdingRoot = false;
+                    }
+                } else {
+                    slots.add(loc);
+                }
+                path.add(page);
             }
-            Split split = readNode(children.get(loc)).insert(key, value);
-            if (split == null) return null;
-            
-            int index = loc;
-            keys.add(index, split.key);
-            children.add(index + 1, split.right.offset);
-            if (keys.size() < M) return null;
-            
-            // Split the node if it overflows
-            int mid = keys.size() / 2;
-            long midKey = keys.get(mid);
-            InternalNode sibling = new InternalNode();
-            while (keys.size() > mid) {
-                sibling.keys.add(keys.remove(mid));
-                sibling.children.add(children.remove(mid + 1));
+
+            int last = path.size() - 1;
+            modifiedFrom = last;
+            Split split = insertIntoLeaf(page, key, value);
+            boolean stored = split == null;
+            for (int i = last - 1; i >= 0 && split != null; i--) {
+                BufferPool.Page parent = path.get(i);
+                modifiedFrom = i;
+                split = insertIntoInternal(parent, parent.buffer.getInt(NODE_COUNT), slots.get(i), split);
+            }
+            if (split != null) {
+                // The root split, which is only possible while the root latch is still held
+                long newRoot = allocatePage();
+                BufferPool.Page root = pool.pinNew(newRoot);
+                ByteBuffer buffer = root.buffer;
+                buffer.put(NODE_TYPE, (byte) 0);
+                buffer.putInt(NODE_COUNT, 1);
+                buffer.putLong(NODE_KEYS, split.key);
+                buffer.putLong(valuesStart, path.get(0).id);
+                buffer.putLong(valuesStart + 8, split.right);
+                pool.unpin(root, true);
+                rootPage = newRoot;
+                height++;
+                saveTree(); // Save the new tree structure
             }
-            return new Split(midKey, sibling);
+            return stored;
+        } finally {
+            for (int i = 0; i < path.size(); i++) {
+                release(path.get(i), true, i >= modifiedFrom);
+            }
+            if (holdingRoot) rootLatch.writeLock().unlock();
         }
+    }
 
-        void write(RandomAccessFile file) throws IOException {
-            // Write node data to file
-            file.writeInt(keys.size());
-            for (int i = 0; i < keys.size(); i++) {
-                file.writeLong(keys.get(i));
-                file.writeLong(children.get(i));
+    // Whether a node takes one more key without splitting. For a leaf this only holds when the entry fits the current
+    // packed widths; a leaf that would need wider ones may still have room, but is treated as full.
+    private boolean hasRoom(BufferPool.Page page, long key, long value) {
+        ByteBuffer buffer = page.buffer;
+        int count = buffer.getInt(NODE_COUNT);
+        if (buffer.get(NODE_TYPE) == 0) return count < order;
+        return count < leafLimit && PackedLeaf.hasRoom(buffer, key, value);
+    }
+
+    // Stores key and value in a write-latched leaf, replacing the value of an existing key. Returns false without
+    // changing the leaf when the entry does not fit even after the leaf is packed again with wider distances.
+    private boolean storeInLeaf(BufferPool.Page page, long key, long value) {
+        ByteBuffer buffer = page.buffer;
+        int count = buffer.getInt(NODE_COUNT);
+        int loc = PackedLeaf.lowerBound(buffer, 0, count, key);
+        boolean exists = loc < count && PackedLeaf.key(buffer, loc) == key;
+        if (!exists && count >= leafLimit) return false;
+        int before = PackedLeaf.usedBytes(buffer);
+        if (exists ? !PackedLeaf.setInPlace(buffer, loc, value) : !PackedLeaf.insertInPlace(buffer, loc, key, value)) {
+            // The entry needs wider distances or a new first key, rewrite the whole leaf with it
+            long[] keys = new long[count + 1];
+            long[] values = new long[count + 1];
+            PackedLeaf.decode(buffer, 0, keys, values);
+            if (!exists) {
+                System.arraycopy(keys, loc, keys, loc + 1, count - loc);
+                System.arraycopy(values, loc, values, loc + 1, count - loc);
+                keys[loc] = key;
             }
-            file.writeLong(children.get(children.size() - 1)); // Write the last child
+            values[loc] = value;
+            if (!PackedLeaf.encode(buffer, keys, values, 0, exists ? count : count + 1)) return false;
         }
+        if (!exists) entryCount.incrementAndGet();
+        leafBytes.addAndGet(PackedLeaf.usedBytes(buffer) - before);
+        return true;
+    }
+
+    // Stores key and value in a write-latched leaf, or splits the leaf in half without storing them if they do not fit
+    private Split insertIntoLeaf(BufferPool.Page page, long key, long value) throws IOException {
+        if (storeInLeaf(page, key, value)) return null;
+
+        // Split the node, the right half starts with the separator key. Each half holds a subset of the entries,
+        // which never needs wider distances, so both fit.
+        leafSplits.increment();
+        ByteBuffer buffer = page.buffer;
+        int count = buffer.getInt(NODE_COUNT);
+        long[] keys = new long[count];
+        long[] values = new long[count];
+        PackedLeaf.decode(buffer, 0, keys, values);
+        int mid = count / 2;
+        long rightPage = allocatePage();
+        int before = PackedLeaf.usedBytes(buffer);
+        PackedLeaf.encode(buffer, keys, values, 0, mid);
+        leafBytes.addAndGet(PackedLeaf.usedBytes(buffer) - before);
+        writeLeaf(rightPage, Arrays.copyOfRange(keys, mid, count), Arrays.copyOfRange(values, mid, count), count - mid,
+                  buffer.getLong(NODE_NEXT)); // Link the new leaf into the leaf chain
+        buffer.putLong(NODE_NEXT, rightPage);
+        return new Split(keys[mid], rightPage);
     }
 
-    // Leaf node class
-    class LeafNode extends Node {
-        List<Long> values; // Values corresponding to the keys
+    // Adds the separator and right child of a child split and splits the internal node if it overflows
+    private Split insertIntoInternal(BufferPool.Page page, int count, int loc, Split split) throws IOException {
+        ByteBuffer buffer = page.buffer;
+        byte[] data = page.data;
+        System.arraycopy(data, NODE_KEYS + loc * 8, data, NODE_KEYS + (loc + 1) * 8, (count - loc) * 8);
+        System.arraycopy(data, valuesStart + (loc + 1) * 8, data, valuesStart + (loc + 2) * 8, (count - loc) * 8);
+        buffer.putLong(NODE_KEYS + loc * 8, split.key);
+        buffer.putLong(valuesStart + (loc + 1) * 8, split.right);
+        buffer.putInt(NODE_COUNT, ++count);
+        if (count <= order) return null;
+
+        // Split the node if it overflows, the middle key moves up to the parent
+        internalSplits.increment();
+        int mid = count / 2;
+        long midKey = keyAt(buffer, mid);
+        long rightPage = allocatePage();
+        BufferPool.Page right = pool.pinNew(rightPage);
+        right.buffer.put(NODE_TYPE, (byte) 0);
+        int rightKeys = count - mid - 1;
+        System.arraycopy(data, NODE_KEYS + (mid + 1) * 8, right.data, NODE_KEYS, rightKeys * 8);
+        System.arraycopy(data, valuesStart + (mid + 1) * 8, right.data, valuesStart, (rightKeys + 1) * 8);
+        right.buffer.putInt(NODE_COUNT, rightKeys);
+        buffer.putInt(NODE_COUNT, mid);
+        pool.unpin(right, true);
+        return new Split(midKey, rightPage);
+    }
+
+    // Reads the key in the given slot of a node page
+    private static long keyAt(ByteBuffer buffer, int index) {
+        return buffer.getLong(NODE_KEYS + index * 8);
+    }
 
-        LeafNode() throws IOException {
-            this.offset = indexFile.length(); // Set offset at the end of the file
-            keys = new ArrayList<>();
-            values = new ArrayList<>();
+    // Binary search for the first slot whose key is greater than the given key, which is also the child to follow
+    private static int upperBound(ByteBuffer buffer, int count, long key) {
+        int low = 0, high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keyAt(buffer, mid) <= key) low = mid + 1;
+            else high = mid;
         }
+        return low;
+    }
 
-        LeafNode(RandomAccessFile file, long offset) throws IOException {
-            this.offset = offset;
-            keys = new ArrayList<>();
-            values = new ArrayList<>();
-            int keySize = file.readInt(); // Read the number of keys
-            for (int i = 0; i < keySize; i++) {
-                keys.add(file.readLong());
-                values.add(file.readLong());
-            }
+    // Finds the leaf that would hold the given key and returns it pinned and read-latched
+    private BufferPool.Page findLeaf(long key) throws IOException {
+        BufferPool.Page page = latchRoot(false);
+        while (page.buffer.get(NODE_TYPE) == 0) {
+            ByteBuffer buffer = page.buffer;
+            long child = buffer.getLong(valuesStart + upperBound(buffer, buffer.getInt(NODE_COUNT), key) * 8);
+            page = crab(page, child, false);
         }
+        return page;
+    }
+
+    // Supplies sorted entries to the bulk loader one at a time
+    interface EntrySource {
+        boolean next() throws IOException; // Moves to the next entry, false when there are none left
 
-        boolean isLeaf() {
+        long key();
+
+        long value();
+    }
+
+    // Passes on the last entry of every run of equal keys, so a later duplicate replaces the value of an earlier one
+    // before the bulk loader sizes a leaf for it. A replaced value that still counted towards the leaf's bounds could
+    // widen them past what the page holds.
+    private static class LastOfEachKey implements EntrySource {
+        private final EntrySource entries;
+        private boolean started;
+        private boolean ahead; // Whether the source is positioned on an entry that was not passed on yet
+        private long key;
+        private long value;
+
+        LastOfEachKey(EntrySource entries) {
+            this.entries = entries;
+        }
+
+        public boolean next() throws IOException {
+            if (!started) {
+                ahead = entries.next();
+                started = true;
+            }
+            if (!ahead) return false;
+            key = entries.key();
+            value = entries.value();
+            while ((ahead = entries.next()) && entries.key() == key) {
+                value = entries.value();
+            }
             return true;
         }
 
-        Long search(long key) {
-            // Linear search to find the key and return its corresponding value
-            int loc = 0;
-            while (loc < keys.size() && key > keys.get(loc)) {
-                loc++;
+        public long key() { return key; }
+        public long value() { return value; }
+    }
+
+    // A key and its value returned by a range scan
+    static class Entry {
+        final long key;
+        final long value;
+
+        Entry(long key, long value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    // Walks the leaf chain, copying the matching entries of one leaf at a time so no page stays pinned between calls.
+    // A bulk load while the scan is in progress makes it fail with a ConcurrentModificationException.
+    private class RangeIterator implements Iterator<Entry> {
+        private final int expectedVersion = version; // Tree version the leaf chain belongs to
+        private final long to; // Last key of the range
+        private long[] keys = new long[0]; // Matching keys of the current leaf
+        private long[] values = new long[0]; // Matching values of the current leaf
+        private int size; // Number of buffered entries
+        private int position; // Next buffered entry to return
+        private long nextLeaf; // Next leaf to read, 0 when the range is exhausted
+
+        RangeIterator(long from, long to) throws IOException {
+            this.to = to;
+            if (from > to) return;
+            treeLock.readLock().lock();
+            try {
+                copyLeaf(findLeaf(from), from);
+            } finally {
+                treeLock.readLock().unlock();
             }
-            if (loc < keys.size() && keys.get(loc) == key) return values.get(loc);
-            return null;
         }
 
-        Split insert(long key, long value) throws IOException {
-            // Insert key and value in sorted order and handle split if necessary
-            int loc = 0;
-            while (loc < keys.size() && key > keys.get(loc)) {
-                loc++;
+        public boolean hasNext() {
+            try {
+                while (position == size && nextLeaf != 0) {
+                    loadLeaf(nextLeaf, Long.MIN_VALUE);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
             }
-            keys.add(loc, key);
-            values.add(loc, value);
-            if (keys.size() < M) return null;
+            return position < size;
+        }
 
-            // Split the node if it overflows
-            int mid = keys.size() / 2;
-            long midKey = keys.get(mid);
-            LeafNode sibling = new LeafNode();
-            while (keys.size() > mid) {
-                sibling.keys.add(keys.remove(mid));
-                sibling.values.add(values.remove(mid));
+        public Entry next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            Entry entry = new Entry(keys[position], values[position]);
+            position++;
+            return entry;
+        }
+
+        // Reads the next leaf of the chain
+        private void loadLeaf(long pageId, long from) throws IOException {
+            treeLock.readLock().lock();
+            try {
+                if (version != expectedVersion) throw new ConcurrentModificationException("The index was rebuilt during the scan");
+                copyLeaf(latch(pageId, false), from);
+            } finally {
+                treeLock.readLock().unlock();
             }
-            return new Split(midKey, sibling);
         }
 
-        void write(RandomAccessFile file) throws IOException {
-            // Write node data to file
-            file.writeInt(keys.size());
-            for (int i = 0; i < keys.size(); i++) {
-                file.writeLong(keys.get(i));
-                file.writeLong(values.get(i));
+        // Buffers the entries of a latched leaf that fall in the range, remembers where the chain continues and releases the leaf
+        private void copyLeaf(BufferPool.Page page, long from) {
+            ByteBuffer buffer = page.buffer;
+            int count = buffer.getInt(NODE_COUNT);
+            if (keys.length < count) {
+                keys = new long[count];
+                values = new long[count];
+            }
+            int decoded = PackedLeaf.decode(buffer, PackedLeaf.lowerBound(buffer, 0, count, from), keys, values);
+            size = 0;
+            position = 0;
+            while (size < decoded && keys[size] <= to) {
+                size++;
             }
+            nextLeaf = size == decoded ? buffer.getLong(NODE_NEXT) : 0; // Stop once a key past the range is seen
+            release(page, false, false);
+        }
+    }
+
+    // Represents a split operation result
+    static class Split {
+        final long key; // The key at which the split occurs
+        final long right; // Page id of the new right node after the split
+
+        Split(long key, long right) {
+            this.key = key;
+            this.right = right;
         }
     }
 }
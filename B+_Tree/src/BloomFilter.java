@@ -0,0 +1,201 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Blocked Bloom filter over the keys of the primary index, so lookups of ids that do not exist can skip the index.
+// Every key hashes to one 512 bit block, the size of a cache line, and sets a few bits inside it, so a query touches
+// a single block instead of one random word per hash function.
+// Bits are only ever set, and keys are added before they are inserted into the index, so the filter never rules out
+// a key the index holds. It is sized for twice the keys it starts with; once more keys than that were added the
+// false-positive rate climbs and the owner rebuilds it larger.
+class BloomFilter {
+    static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+    private static final long MIN_CAPACITY = 1 << 16; // Keys an empty database's filter is sized for
+    private static final int MAGIC = 0x424C4D31; // Marks a filter file ("BLM1")
+    private static final int BLOCK_BITS = 512;
+    private static final int BLOCK_WORDS = BLOCK_BITS / 64;
+    private static final int PROBES_PER_HASH = 7; // 9 bit positions within a block taken from every 64 bit hash
+    private static final int MAX_BLOCKS = Integer.MAX_VALUE / BLOCK_WORDS;
+
+    private final AtomicLongArray words; // The bit array, block after block
+    private final int blocks;
+    private final int hashes; // Bits set per key
+    private final long capacity; // Keys the filter was sized for
+    private final double falsePositiveRate; // Expected rate when the filter holds its capacity
+    private final AtomicLong added; // Keys added, including repeated ones
+    private final long indexedKeys; // Index size when the filter was saved, for a filter read from a file
+    private volatile boolean dirty; // Whether bits were set since the filter was last saved
+
+    private BloomFilter(int blocks, int hashes, long capacity, double falsePositiveRate, long added, long indexedKeys) {
+        this.words = new AtomicLongArray(blocks * BLOCK_WORDS);
+        this.blocks = blocks;
+        this.hashes = hashes;
+        this.capacity = capacity;
+        this.falsePositiveRate = falsePositiveRate;
+        this.added = new AtomicLong(added);
+        this.indexedKeys = indexedKeys;
+    }
+
+    // Creates an empty filter with room for the given number of keys and some growth, at the given false-positive rate
+    static BloomFilter create(long keys, double falsePositiveRate) {
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) throw new IllegalArgumentException("False-positive rate must be in (0, 1)");
+        long capacity = Math.max(MIN_CAPACITY, keys * 2);
+        double bitsPerKey = -Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)); // What a classic filter needs
+        int hashes = hashes(bitsPerKey);
+        while (expectedRate(BLOCK_BITS / bitsPerKey, hashes) > falsePositiveRate) {
+            bitsPerKey *= 1.05; // Blocks fill unevenly, so a blocked filter needs somewhat more bits for the same rate
+            hashes = hashes(bitsPerKey);
+        }
+        long bits = (long) Math.ceil(capacity * bitsPerKey);
+        int blocks = (int) Math.min(MAX_BLOCKS, (bits + BLOCK_BITS - 1) / BLOCK_BITS);
+        BloomFilter filter = new BloomFilter(blocks, hashes, capacity, falsePositiveRate, 0, -1);
+        filter.dirty = true;
+        return filter;
+    }
+
+    // Sets the bits of a key, callers add keys one thread at a time
+    void add(long key) {
+        long hash = mix(key);
+        int base = block(hash) * BLOCK_WORDS;
+        long probes = 0;
+        for (int i = 0; i < hashes; i++) {
+            if (i % PROBES_PER_HASH == 0) probes = probes(hash, i);
+            int bit = (int) probes & (BLOCK_BITS - 1);
+            probes >>>= 9;
+            int word = base + (bit >>> 6);
+            long mask = 1L << bit;
+            if ((words.get(word) & mask) == 0) words.getAndAccumulate(word, mask, (a, b) -> a | b);
+        }
+        added.incrementAndGet();
+        dirty = true;
+    }
+
+    // False when the key was certainly never added, true when it may have been
+    boolean mightContain(long key) {
+        long hash = mix(key);
+        int base = block(hash) * BLOCK_WORDS;
+        long probes = 0;
+        for (int i = 0; i < hashes; i++) {
+            if (i % PROBES_PER_HASH == 0) probes = probes(hash, i);
+            int bit = (int) probes & (BLOCK_BITS - 1);
+            probes >>>= 9;
+            if ((words.get(base + (bit >>> 6)) & 1L << bit) == 0) return false;
+        }
+        return true;
+    }
+
+    // Whether more keys were added than the filter was sized for
+    boolean isFull() {
+        return added.get() > capacity;
+    }
+
+    double falsePositiveRate() {
+        return falsePositiveRate;
+    }
+
+    // Index size the filter was saved with, -1 for a filter that was not read from a file
+    long indexedKeys() {
+        return indexedKeys;
+    }
+
+    long sizeInBytes() {
+        return (long) blocks * BLOCK_BITS / 8;
+    }
+
+    // Writes the filter next to the file and renames it into place, so a crash never leaves a torn filter behind.
+    // Nothing is written when no bits were set since the last save.
+    void save(File file, long indexedKeys, FileStats stats) throws IOException {
+        if (!dirty) return;
+        dirty = false; // Keys added while saving mark it dirty again
+        File temporary = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temporary);
+             DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, 1 << 16))) {
+            data.writeInt(MAGIC);
+            data.writeInt(blocks);
+            data.writeInt(hashes);
+            data.writeLong(capacity);
+            data.writeDouble(falsePositiveRate);
+            data.writeLong(added.get());
+            data.writeLong(indexedKeys);
+            for (int i = 0; i < words.length(); i++) {
+                data.writeLong(words.get(i));
+            }
+            data.flush();
+            out.getChannel().force(false);
+            stats.written(data.size());
+        } catch (IOException e) {
+            dirty = true;
+            throw e;
+        }
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Reads a saved filter, or returns null when there is none or it cannot be read
+    static BloomFilter load(File file, FileStats stats) {
+        if (!file.isFile()) return null;
+        try (DataInputStream data = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            if (data.readInt() != MAGIC) return null;
+            int blocks = data.readInt();
+            int hashes = data.readInt();
+            long capacity = data.readLong();
+            double falsePositiveRate = data.readDouble();
+            long added = data.readLong();
+            long indexedKeys = data.readLong();
+            if (blocks <= 0 || blocks > MAX_BLOCKS || file.length() != 44 + (long) blocks * BLOCK_BITS / 8) return null;
+            BloomFilter filter = new BloomFilter(blocks, hashes, capacity, falsePositiveRate, added, indexedKeys);
+            for (int i = 0; i < filter.words.length(); i++) {
+                filter.words.set(i, data.readLong());
+            }
+            stats.read(file.length());
+            return filter;
+        } catch (IOException e) {
+            return null; // the filter only holds derived data, the caller builds a new one
+        }
+    }
+
+    // Number of bits to set per key that gives the lowest false-positive rate
+    private static int hashes(double bitsPerKey) {
+        return (int) Math.max(1, Math.min(16, Math.round(bitsPerKey * Math.log(2))));
+    }
+
+    // Expected false-positive rate of a blocked filter. The number of keys in a block follows a Poisson distribution,
+    // and a block holding j keys answers like a classic 512 bit filter holding j keys.
+    private static double expectedRate(double keysPerBlock, int hashes) {
+        double rate = 0;
+        double probability = Math.exp(-keysPerBlock); // Chance that a block holds j keys, starting at j = 0
+        for (int j = 0; j < keysPerBlock * 4 + 50; j++) { // The terms vanish long before this
+            rate += probability * Math.pow(1 - Math.pow(1 - 1.0 / BLOCK_BITS, (double) hashes * j), hashes);
+            probability *= keysPerBlock / (j + 1);
+        }
+        return rate;
+    }
+
+    // Picks the block from the high half of the hash
+    private int block(long hash) {
+        return (int) (((hash >>> 32) * blocks) >>> 32);
+    }
+
+    // Independent hash supplying the bit positions from the given probe on
+    private static long probes(long hash, int probe) {
+        return mix(hash + (probe / PROBES_PER_HASH + 1) * 0x9E3779B97F4A7C15L);
+    }
+
+    // Final mixing step of MurmurHash3, which spreads sequential ids over the whole range
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xFF51AFD7ED558CCDL;
+        key ^= key >>> 33;
+        key *= 0xC4CEB9FE1A85EC53L;
+        key ^= key >>> 33;
+        return key;
+    }
+}
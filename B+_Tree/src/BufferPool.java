@@ -0,0 +1,214 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Caches fixed-size pages of a file in memory and writes dirty pages back on eviction or flush.
+// The pool is thread-safe: its bookkeeping is guarded by the pool's monitor and a page miss is read
+// outside of it, so lookups that hit the cache are never held up by another thread's disk read.
+// Every page also carries a read/write latch that callers use to guard the page contents.
+class BufferPool {
+    private static final int MAX_USAGE = 5; // Upper bound for the clock usage counter, so hot pages survive several sweeps
+
+    private final FileChannel channel; // File the pages are read from and written to
+    private final int pageSize; // Size of every page in bytes
+    private final Page[] frames; // The in-memory page frames
+    private final Map<Long, Page> pageTable = new HashMap<>(); // Maps a page id to the frame currently holding it
+    private int clockHand; // Next frame the clock sweep will look at
+    private final LongAdder pins = new LongAdder(); // Pages pinned, whether they were cached or not
+    private final LongAdder modifications = new LongAdder(); // Pins released with the page modified
+    private final FileStats stats = new FileStats(); // Bytes moved between the pool and the file
+
+    // Constructor that creates a pool of the given number of frames over a file channel
+    BufferPool(FileChannel channel, int pageSize, int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("Buffer pool needs at least one frame");
+        this.channel = channel;
+        this.pageSize = pageSize;
+        this.frames = new Page[capacity];
+        for (int i = 0; i < capacity; i++) {
+            frames[i] = new Page(pageSize);
+        }
+    }
+
+    // Pins a page, reading it from the file if it is not already cached
+    Page pin(long pageId) throws IOException {
+        pins.increment();
+        Page page;
+        synchronized (this) {
+            page = pageTable.get(pageId);
+            if (page != null) {
+                page.pinCount++;
+                page.usage = Math.min(page.usage + 1, MAX_USAGE); // Every access makes the page a little harder to evict
+                while (page.loading) {
+                    awaitLoad(); // Another thread is reading this page from the file
+                }
+                if (page.id != pageId) throw new IOException("Reading page " + pageId + " failed in another thread");
+                return page;
+            }
+            page = claimFrame(pageId);
+            page.pinCount = 1;
+            page.usage = 1;
+            page.loading = true;
+        }
+        try {
+            readPage(page);
+        } catch (IOException e) {
+            synchronized (this) {
+                pageTable.remove(pageId); // Give the frame back so a later pin retries the read
+                page.id = -1;
+                page.pinCount = 0;
+                page.loading = false;
+                notifyAll();
+            }
+            throw e;
+        }
+        synchronized (this) {
+            page.loading = false;
+            notifyAll();
+        }
+        return page;
+    }
+
+    // Pins a freshly allocated page without reading it, its contents start zeroed
+    synchronized Page pinNew(long pageId) throws IOException {
+        Page page = pageTable.get(pageId);
+        if (page == null) {
+            page = claimFrame(pageId);
+        }
+        Arrays.fill(page.data, (byte) 0);
+        page.pinCount++;
+        page.usage = Math.min(page.usage + 1, MAX_USAGE);
+        page.dirty = true; // A new page must reach the file even if the caller never touches it
+        return page;
+    }
+
+    // Releases a pin, marking the page dirty if the caller modified it
+    synchronized void unpin(Page page, boolean dirty) {
+        if (page.pinCount <= 0) throw new IllegalStateException("Page " + page.id + " is not pinned");
+        page.pinCount--;
+        page.dirty |= dirty;
+        if (dirty) modifications.increment();
+    }
+
+    // Writes every dirty page back to the file
+    synchronized void flush() throws IOException {
+        for (Page page : frames) {
+            if (page.id >= 0 && page.dirty) {
+                writePage(page);
+            }
+        }
+    }
+
+    // Drops every cached page without writing it back, used when the file is about to be rewritten from scratch
+    synchronized void clear() {
+        for (Page page : frames) {
+            if (page.pinCount > 0) throw new IllegalStateException("Page " + page.id + " is still pinned");
+            page.id = -1;
+            page.dirty = false;
+            page.usage = 0;
+        }
+        pageTable.clear();
+    }
+
+    // Number of frames in the pool
+    int capacity() {
+        return frames.length;
+    }
+
+    // Size of every page in bytes
+    int pageSize() {
+        return pageSize;
+    }
+
+    // Number of pages pinned since the pool was created, including cache hits
+    long pins() {
+        return pins.sum();
+    }
+
+    // Number of pins that were released with the page modified
+    long modifications() {
+        return modifications.sum();
+    }
+
+    // Bytes read from and written to the file by the pool
+    FileStats stats() {
+        return stats;
+    }
+
+    // Finds a frame for the page using the clock algorithm, writing back the victim if it is dirty
+    private Page claimFrame(long pageId) throws IOException {
+        for (int sweeps = 0; sweeps <= frames.length * (MAX_USAGE + 1); sweeps++) {
+            Page victim = frames[clockHand];
+            clockHand = (clockHand + 1) % frames.length;
+            if (victim.pinCount > 0 || victim.loading) continue; // Pinned pages can never be evicted
+            if (victim.usage > 0) {
+                victim.usage--; // Give recently used pages another chance
+                continue;
+            }
+            if (victim.id >= 0) {
+                if (victim.dirty) writePage(victim);
+                pageTable.remove(victim.id);
+            }
+            victim.id = pageId;
+            victim.dirty = false;
+            victim.usage = 0;
+            pageTable.put(pageId, victim);
+            return victim;
+        }
+        throw new IllegalStateException("All " + frames.length + " buffer pool frames are pinned");
+    }
+
+    // Waits for a page read by another thread, called with the pool's monitor held
+    private void awaitLoad() throws IOException {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a page read", e);
+        }
+    }
+
+    // Reads a page from the file, zero filling anything past the end of the file
+    private void readPage(Page page) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(page.data);
+        long position = page.id * pageSize;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) break;
+        }
+        Arrays.fill(page.data, buffer.position(), pageSize, (byte) 0);
+        stats.read(buffer.position());
+    }
+
+    // Writes a page to its slot in the file
+    private void writePage(Page page) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(page.data);
+        long position = page.id * pageSize;
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+        stats.written(pageSize);
+        page.dirty = false;
+    }
+
+    // A frame in the pool holding one page of the file
+    static class Page {
+        long id = -1; // Id of the page held in this frame, or -1 when the frame is empty
+        final byte[] data; // Raw page bytes
+        final ByteBuffer buffer; // Buffer view over the page bytes
+        int pinCount; // Number of callers currently using the page
+        int usage; // Clock usage counter
+        boolean dirty; // Whether the page differs from its copy on disk
+        boolean loading; // Whether the page is still being read from the file
+        final ReentrantReadWriteLock latch = new ReentrantReadWriteLock(); // Guards the page contents while it is pinned
+
+        Page(int pageSize) {
+            this.data = new byte[pageSize];
+            this.buffer = ByteBuffer.wrap(data);
+        }
+    }
+}
@@ -0,0 +1,206 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Loads a CSV file of "id,lastName,firstName,grade" lines with a staged pipeline. The file is memory-mapped
+// and cut into chunks at line boundaries, parser workers encode each chunk straight into 64 byte record slots
+// without building Strings, and the caller's thread hands the finished batches to a sink in file order.
+// Lines are parsed like the line.split(",") and trim() of the single-threaded loader they replace.
+class CsvLoader {
+    static final int CHUNK_SIZE = 4 << 20; // Bytes of the file parsed by one task
+
+    private final int workers; // Number of parser threads
+
+    CsvLoader(int workers) {
+        this.workers = Math.max(1, workers);
+    }
+
+    // Receives parsed batches in file order
+    interface BatchSink {
+        void accept(Batch batch) throws IOException;
+    }
+
+    // Records parsed from one chunk of the file
+    static class Batch {
+        byte[] records; // Encoded records, 64 bytes each
+        long[] ids; // Id of every record
+        int count; // Number of records in the batch
+        final List<String> skipped = new ArrayList<>(); // Lines with fewer than four fields
+        RuntimeException error; // Parse error that ends the load after the records before it
+
+        Batch() {
+            this(1024);
+        }
+
+        // An empty batch with room for the given number of records, at least one
+        Batch(int capacity) {
+            capacity = Math.max(1, capacity); // Growing doubles the capacity, which must not stay at zero
+            records = new byte[64 * capacity];
+            ids = new long[capacity];
+        }
+
+        // Returns the next free record slot, growing the arrays when they are full
+        int nextSlot() {
+            if (count == ids.length) {
+                ids = Arrays.copyOf(ids, count * 2);
+                records = Arrays.copyOf(records, count * 2 * 64);
+            }
+            return count++;
+        }
+    }
+
+    // Parses the file and passes every batch to the sink. A malformed id is rethrown once the records before it were passed on.
+    void load(File file, BatchSink sink) throws IOException {
+        ExecutorService parsers = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, "csv-parser");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+            FileChannel channel = input.getChannel();
+            long size = channel.size();
+            ArrayDeque<Future<Batch>> inFlight = new ArrayDeque<>(); // Bounded, so a fast reader cannot run ahead of the writer
+            long start = 0;
+            while (start < size || !inFlight.isEmpty()) {
+                while (start < size && inFlight.size() < workers * 2) {
+                    long end = chunkEnd(channel, start, size);
+                    long chunkStart = start;
+                    inFlight.add(parsers.submit(() -> parse(channel, chunkStart, end)));
+                    start = end;
+                }
+                Batch batch = await(inFlight.poll());
+                sink.accept(batch);
+                if (batch.error != null) throw batch.error;
+            }
+        } finally {
+            parsers.shutdownNow();
+        }
+    }
+
+    // Finds the end of the chunk starting at the given position: just past the last line break within the chunk size
+    private static long chunkEnd(FileChannel channel, long start, long size) throws IOException {
+        long limit = Math.min(start + CHUNK_SIZE, size);
+        while (limit < size) {
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, start, limit - start);
+            for (int i = (int) (limit - start) - 1; i >= 0; i--) {
+                if (window.get(i) == '\n') return start + i + 1;
+            }
+            limit = Math.min(start + (limit - start) * 2, size); // A line longer than the chunk, look further
+        }
+        return size;
+    }
+
+    // Waits for a parse task and unwraps its failure
+    private static Batch await(Future<Batch> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException("Parsing failed: " + e.getCause(), e.getCause());
+        }
+    }
+
+    // Parses the lines of one chunk into a batch of encoded records
+    private static Batch parse(FileChannel channel, long start, long end) throws IOException {
+        int length = (int) (end - start);
+        byte[] data = new byte[length];
+        channel.map(FileChannel.MapMode.READ_ONLY, start, length).get(0, data);
+        Batch batch = new Batch();
+        int lineStart = 0;
+        while (lineStart < length) {
+            int lineEnd = lineStart;
+            while (lineEnd < length && data[lineEnd] != '\n') lineEnd++;
+            int next = lineEnd + 1;
+            if (lineEnd > lineStart && data[lineEnd - 1] == '\r') lineEnd--; // Windows line endings
+            try {
+                parseLine(data, lineStart, lineEnd, batch);
+            } catch (NumberFormatException e) {
+                batch.error = e;
+                return batch;
+            }
+            lineStart = next;
+        }
+        return batch;
+    }
+
+    // Encodes one line into the next record slot, or records it as skipped when it has fewer than four fields
+    private static void parseLine(byte[] data, int start, int end, Batch batch) {
+        int[] commas = new int[3];
+        int found = 0;
+        for (int i = start; i < end && found < 3; i++) {
+            if (data[i] == ',') commas[found++] = i;
+        }
+        boolean valid = found == 3;
+        if (valid) {
+            valid = false; // Trailing empty fields do not count, like String.split
+            for (int i = commas[2] + 1; i < end; i++) {
+                if (data[i] != ',') {
+                    valid = true;
+                    break;
+                }
+            }
+        }
+        if (!valid) {
+            batch.skipped.add(new String(data, start, end - start, StandardCharsets.UTF_8));
+            return;
+        }
+        int gradeEnd = commas[2] + 1;
+        while (gradeEnd < end && data[gradeEnd] != ',') gradeEnd++;
+
+        long id = parseId(data, start, commas[0]);
+        int slot = batch.nextSlot();
+        byte[] records = batch.records;
+        int base = slot * 64;
+        batch.ids[slot] = id;
+        ByteBuffer.wrap(records).putLong(base, id).putLong(base + 50, -1); // Id and an empty overflow link
+        copyField(data, commas[0] + 1, commas[1], records, base + 8, 20); // Last name
+        copyField(data, commas[1] + 1, commas[2], records, base + 28, 20); // First name
+        copyField(data, commas[2] + 1, gradeEnd, records, base + 48, 2); // Letter grade
+    }
+
+    // Copies a trimmed field into a zero-padded fixed-size slot, truncating it like StudentRecord.fixedSize
+    private static void copyField(byte[] data, int start, int end, byte[] records, int offset, int size) {
+        while (start < end && (data[start] & 0xFF) <= ' ') start++;
+        while (end > start && (data[end - 1] & 0xFF) <= ' ') end--;
+        System.arraycopy(data, start, records, offset, Math.min(end - start, size));
+    }
+
+    // Parses a trimmed decimal id, with the same results and errors as Long.parseLong
+    private static long parseId(byte[] data, int start, int end) {
+        while (start < end && (data[start] & 0xFF) <= ' ') start++;
+        while (end > start && (data[end - 1] & 0xFF) <= ' ') end--;
+        int digits = end - start;
+        if (digits > 0 && digits < 19) {
+            int i = start;
+            boolean negative = data[i] == '-';
+            if (negative || data[i] == '+') i++;
+            long value = 0;
+            boolean plain = i < end;
+            for (; i < end; i++) {
+                int digit = data[i] - '0';
+                if (digit < 0 || digit > 9) {
+                    plain = false;
+                    break;
+                }
+                value = value * 10 + digit; // Fewer than 19 digits cannot overflow
+            }
+            if (plain) return negative ? -value : value;
+        }
+        return Long.parseLong(new String(data, start, end - start, StandardCharsets.UTF_8)); // Long ids and error messages
+    }
+}
@@ -1,18 +1,92 @@
 import java.io.*;
-import java.util.HashMap;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import javax.management.JMException;
+import javax.management.ObjectName;
 
-public class Database {
+// Lookups may run from any number of threads at the same time as one writer. Writers (adds, loads and checkpoints)
+// take turns on the writer lock, and merges and close also take the structure lock exclusively because they replace
+// or close the files that readers use.
+// Reads are not isolated from adds that are still committing: an add is written to the .db file and the indexes
+// under the writer lock, and its log entry is forced after the lock is released so that concurrent adds share the
+// force. Lookups can return a record before its add is acknowledged, and one whose force then fails until the
+// database is reopened without it.
+public class Database implements RecordManager {
 
     // create private local variables
-    private RandomAccessFile dbFile;
+    private RecordStore records; // the .db file, read through a RandomAccessFile or a memory mapping
     private RandomAccessFile overflowFile;
     private BPlusTree index;
+    private SecondaryIndex lastNameIndex; // last name -> offsets, in the .lastname.index file
+    private SecondaryIndex gradeIndex; // letter grade -> offsets, in the .grade.index file
+    private WriteAheadLog wal; // log of added records, forced before an add is acknowledged
+    private volatile BloomFilter bloom; // primary index keys, in the .bloom file; replaced whole when it is rebuilt
+    private double falsePositiveRate = BloomFilter.DEFAULT_FALSE_POSITIVE_RATE; // target rate of the Bloom filter, kept in its file
     private String baseFilename;
+    private FileChannel lockFile; // the .lock file, locked while the database is open
+    private boolean memoryMapped; // whether the .db file is served from a memory mapping
+    private final ThreadLocal<RecordView> views = ThreadLocal.withInitial(RecordView::new); // one reusable view per thread so showRecord allocates nothing for the record itself
+    private final ReentrantLock writerLock = new ReentrantLock(); // only one thread appends to the files at a time
+    private final ReentrantReadWriteLock structureLock = new ReentrantReadWriteLock(); // shared by readers, exclusive while the files are replaced or closed
+    private double fillFactor = BPlusTree.DEFAULT_FILL_FACTOR; // how full the bulk loader packs index nodes
+    private final byte[] encoded = new byte[RecordStore.RECORD_SIZE]; // the record being added, reused under the writer lock
+
+    // statistics, reported by the stats command and the management bean
+    private final FileStats dataStats = new FileStats(); // bytes of the .db file, kept across the file swaps of merges
+    private final FileStats overflowStats = new FileStats();
+    private final FileStats bloomStats = new FileStats();
+    private final LongAdder bloomNegatives = new LongAdder(); // lookups the Bloom filter answered without touching the index
+    private final LongAdder bloomPassed = new LongAdder(); // lookups the Bloom filter passed on to the index
+    private final LongAdder bloomFalsePositives = new LongAdder(); // passed lookups the index did not find
+    private final LongAdder recordsAdded = new LongAdder(); // records added or loaded since the database was opened
+    private final LatencyHistogram addLatency = new LatencyHistogram();
+    private final LatencyHistogram showLatency = new LatencyHistogram();
+    private final LatencyHistogram loadLatency = new LatencyHistogram();
+    private final LatencyHistogram mergeLatency = new LatencyHistogram();
+    private final LatencyHistogram aggregateLatency = new LatencyHistogram();
+    private ObjectName beanName; // name of the registered management bean, null if it could not be registered
+
+    private static final int BULK_LOAD_RATIO = 16; // batches smaller than 1/16 of the index are inserted instead of rebuilding it
+    private static final long CHECKPOINT_BYTES = 64L << 20; // the log is checkpointed and emptied once it grows past this size
+    private static final int MERGE_MEMORY_ENTRIES = 1 << 18; // records a merge sorts in memory per run, about 20 MiB
+    static final long LOAD_PROGRESS_INTERVAL = 1_000_000; // a load reports its progress every this many records
+    private static final int READ_SPAN_RECORDS = 1024; // a multi-get reads neighbouring records in spans of up to 64 KiB
+    private static final int READ_GAP_RECORDS = 16; // records between two wanted ones that are read through rather than skipped
 
     public Database(String filename) throws IOException {
+        this(filename, false);
+    }
+
+    // memoryMapped selects the memory-mapped record store, which serves reads from the page cache without system calls
+    public Database(String filename, boolean memoryMapped) throws IOException {
         this.baseFilename = filename;
-        initializeFiles(); // initalize the database based on give file name by user
+        this.memoryMapped = memoryMapped;
+        try {
+            initializeFiles(); // initalize the database based on give file name by user
+        } catch (IOException | RuntimeException e) {
+            if (lockFile != null) lockFile.close(); // a database that failed to open must not stay locked
+            throw e;
+        }
+        registerBean();
     }
 
     private void initializeFiles() throws IOException {
@@ -20,95 +94,1002 @@ public class Database {
         File db = new File(baseFilename + ".db");
         File overflow = new File(baseFilename + ".overflow");
         File indexFile = new File(baseFilename + ".index");
+        File walFile = new File(baseFilename + ".wal");
+        lock(new File(baseFilename + ".lock"));
 
-        dbFile = new RandomAccessFile(db, "rw");
+        // A merge sets the .overflow file aside just before renaming its new file into place. If the new file is
+        // still there the rename never happened and the overflow records are only in the set-aside file, so it is put
+        // back; otherwise they are in the new .db file and it is dropped.
+        File setAside = new File(baseFilename + ".overflow.merged");
+        File compacted = new File(baseFilename + ".db.compact");
+        if (setAside.exists() && compacted.exists()) {
+            Files.move(setAside.toPath(), overflow.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } else {
+            setAside.delete();
+        }
+        // A merge that did not finish leaves its new file behind. The old .db is still complete, but the indexes may
+        // already be the ones built for the new file and marked clean, so they are rebuilt from the old one.
+        boolean interruptedMerge = compacted.delete();
+        ExternalSorter.deleteRuns(tempDirectory(), runPrefix()); // sorted runs of a load, merge or rebuild that crashed
+        records = openRecordStore(db);
         overflowFile = new RandomAccessFile(overflow, "rw");
 
         if (!db.exists()) db.createNewFile();
         if (!overflow.exists()) overflow.createNewFile();
         if (!indexFile.exists()) indexFile.createNewFile();
 
-        this.index = new BPlusTree(indexFile); // Initialize B+ tree 
+        boolean rebuild;
+        try {
+            this.index = new BPlusTree(indexFile); // Initialize B+ tree 
+            rebuild = !index.wasCleanOnOpen(); // a crash may have left a split half written
+        } catch (IOException e) {
+            // the index is unreadable, it only holds derived data so start over and rebuild it from the records
+            indexFile.delete();
+            this.index = new BPlusTree(indexFile);
+            rebuild = true;
+        }
+        this.lastNameIndex = openSecondaryIndex(new File(baseFilename + ".lastname.index"), 8, 20);
+        this.gradeIndex = openSecondaryIndex(new File(baseFilename + ".grade.index"), 48, 2);
+        rebuild |= !lastNameIndex.tree().wasCleanOnOpen() || !gradeIndex.tree().wasCleanOnOpen() || interruptedMerge;
+        BloomFilter saved = BloomFilter.load(new File(baseFilename + ".bloom"), bloomStats);
+        if (saved != null) falsePositiveRate = saved.falsePositiveRate();
+
+        // redo recovery: every logged record is written back to its offset, then the index is rebuilt if needed
+        this.wal = new WriteAheadLog(walFile);
+        int replayed = wal.replay((offset, bytes) -> records.write(offset, bytes));
+        if (replayed > 0 || rebuild) {
+            rebuildIndexes();
+            System.out.println("Recovered database: " + replayed + " logged record(s) replayed, index rebuilt.");
+        } else if (lastNameIndex.tree().size() < index.size() || gradeIndex.tree().size() < index.size()) {
+            rebuildIndexes(); // the database was created before it had secondary indexes
+        }
+        if (bloom == null) {
+            // a filter saved with a different index size was not saved at the checkpoint the index is from
+            if (saved != null && saved.indexedKeys() == index.size()) bloom = saved;
+            else rebuildBloom();
+        }
+        checkpoint();
+    }
+
+    // Adds a record without printing anything, for callers that add from many threads.
+    // The log is forced outside the writer lock, so threads adding at the same time share one force.
+    public void insertRecord(StudentRecord record) throws IOException {
+        long start = System.nanoTime();
+        long position;
+        writerLock.lock();
+        try {
+            position = apply(record);
+        } finally {
+            writerLock.unlock();
+        }
+        wal.commit(position); // the add is acknowledged only once its log entry is on disk, though readers may see it already
+        addLatency.recordSince(start);
+        checkpointIfLogIsLarge();
+    }
+
+    // Adds several records with a single log force and without printing anything, for callers that batch their own adds.
+    // Every record of the batch counts towards the add latency with the time the whole batch took.
+    public void insertRecords(List<StudentRecord> batch) throws IOException {
+        if (batch.isEmpty()) return;
+        long start = System.nanoTime();
+        long position = 0;
+        writerLock.lock();
+        try {
+            for (StudentRecord record : batch) {
+                position = apply(record);
+            }
+        } finally {
+            writerLock.unlock();
+        }
+        wal.commit(position);
+        long elapsed = System.nanoTime() - start;
+        for (int i = 0; i < batch.size(); i++) {
+            addLatency.record(elapsed);
+        }
+        checkpointIfLogIsLarge();
     }
 
-    public void addRecord(StudentRecord record) throws IOException {
-        dbFile.seek(dbFile.length()); // Go to the end of the file
-        dbFile.write(record.convertIntoBytes()); // Write the record in byte format
-        index.insert(record.getId(), dbFile.getFilePointer() - 64); // Insert the record into the B+ tree
-        System.out.println("Record added.");
+    // Logs the record, appends it to the .db file and indexes it, returning the log position to commit
+    private long apply(StudentRecord record) throws IOException {
+        byte[] bytes = encoded;
+        record.encode(ByteBuffer.wrap(bytes), 0); // Write the record in byte format at the end of the file
+        long offset = records.length();
+        long position = wal.append(offset, bytes);
+        records.append(bytes);
+        bloom.add(record.getId()); // before the index, so a reader that finds the id in the index never has it filtered out
+        index.insert(record.getId(), offset); // Insert the record into the B+ tree
+        if (bloom.isFull()) rebuildBloom();
+        lastNameIndex.insert(bytes, offset);
+        gradeIndex.insert(bytes, offset);
+        recordsAdded.increment();
+        return position;
     }
 
     public void showRecord(long id) throws IOException {
+        long start = System.nanoTime();
+        structureLock.readLock().lock();
+        try {
+            RecordView view = viewRecord(id, views.get()); // point this thread's view at the record instead of decoding a new object
+            if (view == null) {
+                System.out.println("No record found with ID: " + id); // if there is no record found of the id in the index return error
+                return;
+            }
+            System.out.printf("ID: %d, Last Name: %s, First Name: %s, Grade: %s\n",
+                              view.getId(), view.getLastName(), view.getFirstName(), view.getLetterGrade());
+        } finally {
+            structureLock.readLock().unlock();
+            showLatency.recordSince(start);
+        }
+    }
+
+    // Points the given view at the record with the id and returns it, or returns null when there is no such record.
+    // Fields are decoded only when the caller reads them, so checking just the grade does not build any strings.
+    // With the memory-mapped store the view reads the mapping directly, so it must not be used across a merge.
+    public RecordView viewRecord(long id, RecordView view) throws IOException {
+        structureLock.readLock().lock();
+        try {
+            Long offset = lookup(id);
+            if (offset == null) return null;
+            return records.view(offset, view);
+        } finally {
+            structureLock.readLock().unlock();
+        }
+    }
+
+    // Returns the record with the id, or null when there is none, safe to call from many threads
+    public StudentRecord getRecord(long id) throws IOException {
+        structureLock.readLock().lock();
+        try {
+            Long offset = lookup(id);
+            if (offset == null) return null;
+            byte[] bytes = new byte[64];
+            records.read(offset, bytes);
+            return StudentRecord.convertFromBytes(bytes);
+        } finally {
+            structureLock.readLock().unlock();
+        }
+    }
+
+    // Returns the records with the given ids in the same order, with null for ids that have no record.
+    // The ids are resolved in one sorted pass over the index and the records read in ascending file order,
+    // neighbouring records with a single read, instead of a descent and a random read per id.
+    public StudentRecord[] getRecords(long[] ids) throws IOException {
+        long[] keys = distinctSorted(ids);
+        byte[] found = new byte[keys.length * RecordStore.RECORD_SIZE];
+        boolean[] present;
+        structureLock.readLock().lock();
+        try {
+            present = readSorted(keys, found);
+        } finally {
+            structureLock.readLock().unlock();
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(found);
+        StudentRecord[] records = new StudentRecord[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            int position = Arrays.binarySearch(keys, ids[i]);
+            if (present[position]) records[i] = StudentRecord.decode(buffer, position * RecordStore.RECORD_SIZE);
+        }
+        return records;
+    }
+
+    // Multi-get into reusable holders, so batch jobs build no objects per record: into[i] receives the record
+    // of ids[i], or is cleared when there is none. Returns the number of ids that have a record.
+    public int getRecords(long[] ids, MutableStudentRecord[] into) throws IOException {
+        long[] keys = distinctSorted(ids);
+        byte[] found = new byte[keys.length * RecordStore.RECORD_SIZE];
+        boolean[] present;
+        structureLock.readLock().lock();
+        try {
+            present = readSorted(keys, found);
+        } finally {
+            structureLock.readLock().unlock();
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(found);
+        int count = 0;
+        for (int i = 0; i < ids.length; i++) {
+            int position = Arrays.binarySearch(keys, ids[i]);
+            if (present[position]) {
+                into[i].readFrom(buffer, position * RecordStore.RECORD_SIZE);
+                count++;
+            } else {
+                into[i].clear();
+            }
+        }
+        return count;
+    }
+
+    // Returns the records with IDs in [from, to] in ID order, reading the .db file in ascending offset order
+    public List<StudentRecord> scanRecords(long from, long to) throws IOException {
+        structureLock.readLock().lock();
+        try {
+            return readRange(from, to);
+        } finally {
+            structureLock.readLock().unlock();
+        }
+    }
+
+    // Reads the records of [from, to] with the structure lock held. Loads bulk load the index under the writer lock
+    // only, so a scan overtaken by a bulk load starts over on the new tree; the offsets it found stay valid.
+    private List<StudentRecord> readRange(long from, long to) throws IOException {
+        long[] keys = new long[16];
+        long[] offsets = new long[16];
+        int count;
+        while (true) {
+            count = 0;
+            try {
+                Iterator<BPlusTree.Entry> scan = index.scan(from, to); // one pass along the leaf chain instead of a descent per ID
+                while (scan.hasNext()) {
+                    if (count == keys.length) {
+                        keys = Arrays.copyOf(keys, count * 2);
+                        offsets = Arrays.copyOf(offsets, count * 2);
+                    }
+                    BPlusTree.Entry entry = scan.next();
+                    keys[count] = entry.key;
+                    offsets[count++] = entry.value; // the scan already found the offsets, so they are not looked up again
+                }
+                break;
+            } catch (ConcurrentModificationException e) {
+                // a load bulk loaded the index during the scan, scan the new one
+            }
+        }
+        keys = Arrays.copyOf(keys, count);
+
+        byte[] found = new byte[count * RecordStore.RECORD_SIZE];
+        boolean[] present = readAt(keys, offsets, found);
+        ByteBuffer buffer = ByteBuffer.wrap(found);
+        List<StudentRecord> records = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            if (present[i]) records.add(StudentRecord.decode(buffer, i * RecordStore.RECORD_SIZE));
+        }
+        return records;
+    }
+
+    // Reads the records of the given distinct ascending ids into consecutive 64 byte slots of found, in id order,
+    // and returns which ids have a record. Called with the structure lock held.
+    private boolean[] readSorted(long[] keys, byte[] found) throws IOException {
+        return readAt(keys, lookupAll(keys), found);
+    }
+
+    // Reads the records of the given distinct ascending ids from their offsets, -1 for ids without a record, like
+    // readSorted. The offsets are sorted so the file is read front to back, and records that lie close together are
+    // read with one positional read of the whole span between them.
+    private boolean[] readAt(long[] keys, long[] offsets, byte[] found) throws IOException {
+        long[] sorted = new long[keys.length];
+        int count = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (offsets[i] >= 0) sorted[count++] = offsets[i];
+        }
+        Arrays.sort(sorted, 0, count);
+
+        boolean[] present = new boolean[keys.length];
+        byte[] span = new byte[Math.min(count, READ_SPAN_RECORDS) * RecordStore.RECORD_SIZE];
+        ByteBuffer buffer = ByteBuffer.wrap(span);
+        for (int first = 0; first < count; ) {
+            long start = sorted[first];
+            int last = first;
+            while (last + 1 < count
+                    && sorted[last + 1] - sorted[last] <= (long) READ_GAP_RECORDS * RecordStore.RECORD_SIZE
+                    && sorted[last + 1] - start < (long) span.length) {
+                last++;
+            }
+            records.readAll(start, span, (int) ((sorted[last] - start) / RecordStore.RECORD_SIZE) + 1);
+            for (int i = first; i <= last; i++) {
+                int at = (int) (sorted[i] - start);
+                int position = Arrays.binarySearch(keys, buffer.getLong(at)); // the record at an indexed offset holds that id
+                if (position < 0) continue;
+                System.arraycopy(span, at, found, position * RecordStore.RECORD_SIZE, RecordStore.RECORD_SIZE);
+                present[position] = true;
+            }
+            first = last + 1;
+        }
+        return present;
+    }
+
+    // Finds the offset of an id, or null when there is no record with it. Most ids that do not exist are
+    // ruled out by the Bloom filter without any index I/O.
+    private Long lookup(long id) throws IOException {
+        if (!bloom.mightContain(id)) {
+            bloomNegatives.increment();
+            return null;
+        }
+        bloomPassed.increment();
         Long offset = index.search(id);
-        if (offset == null) {
-            System.out.println("No record found with ID: " + id); // if there is no record found of the id in the index return error
-            return;
+        if (offset == null) bloomFalsePositives.increment();
+        return offset;
+    }
+
+    // Offsets of the given ascending ids, -1 for ids without a record. Only the ids the Bloom filter lets through
+    // are looked up in the index, in one sorted pass.
+    private long[] lookupAll(long[] keys) throws IOException {
+        BloomFilter filter = bloom;
+        long[] offsets = new long[keys.length];
+        long[] candidates = new long[keys.length];
+        int count = 0;
+        for (long key : keys) {
+            if (filter.mightContain(key)) candidates[count++] = key;
         }
-        dbFile.seek(offset);
-        byte[] bytes = new byte[64]; // initialize new array with pre determined size to get and store bytes
-        dbFile.readFully(bytes);
-        StudentRecord record = StudentRecord.convertFromBytes(bytes);
-        System.out.printf("ID: %d, Last Name: %s, First Name: %s, Grade: %s\n", // this is how the system outputs the records correctly
-                          record.getId(), record.getLastName(), record.getFirstName(), record.getLetterGrade());
+        bloomNegatives.add(keys.length - count);
+        bloomPassed.add(count);
+        long[] found = new long[count];
+        index.searchAll(Arrays.copyOf(candidates, count), found);
+        for (int i = 0, j = 0; i < keys.length; i++) {
+            if (j < count && candidates[j] == keys[i]) {
+                offsets[i] = found[j++];
+                if (offsets[i] < 0) bloomFalsePositives.increment();
+            } else {
+                offsets[i] = -1;
+            }
+        }
+        return offsets;
     }
 
-    public void loadRecords(String filename) throws IOException {
-        try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] data = line.split(",");
-                if (data.length < 4) {
-                    System.out.println("Skipping invalid record: " + line); // skips if there is an invalid record
-                    continue;
+    // Sorted copy of the ids without duplicates
+    private static long[] distinctSorted(long[] ids) {
+        long[] keys = ids.clone();
+        Arrays.sort(keys);
+        int count = 0;
+        for (long key : keys) {
+            if (count == 0 || key != keys[count - 1]) keys[count++] = key;
+        }
+        return Arrays.copyOf(keys, count);
+    }
+
+    // Returns the records with the given last name in ID order, using the last name index instead of scanning the file
+    public List<StudentRecord> findByLastName(String lastName) throws IOException {
+        return find(lastNameIndex, lastName);
+    }
+
+    // Returns the records with the given letter grade in ID order, using the grade index instead of scanning the file
+    public List<StudentRecord> findByGrade(String letterGrade) throws IOException {
+        return find(gradeIndex, letterGrade);
+    }
+
+    // Looks a value up in a secondary index, starting over when a load bulk loads the index during the scan
+    private List<StudentRecord> find(SecondaryIndex secondary, String value) throws IOException {
+        structureLock.readLock().lock();
+        try {
+            byte[] encoded = secondary.encode(value);
+            List<StudentRecord> found = new ArrayList<>();
+            byte[] bytes = new byte[64];
+            while (true) {
+                try {
+                    Iterator<BPlusTree.Entry> candidates = secondary.candidates(encoded); // candidates come in ascending offset order
+                    while (candidates.hasNext()) {
+                        long offset = candidates.next().value;
+                        records.read(offset, bytes);
+                        if (!secondary.matches(bytes, encoded)) continue; // a different value with the same hash
+                        StudentRecord record = StudentRecord.convertFromBytes(bytes);
+                        Long current = index.search(record.getId());
+                        if (current == null || current != offset) continue; // an older copy of a record that was added again
+                        found.add(record);
+                    }
+                    break;
+                } catch (ConcurrentModificationException e) {
+                    found.clear(); // a load bulk loaded the secondary index during the scan, scan the new one
                 }
-                long id = Long.parseLong(data[0].trim());
-                String lastName = data[1].trim();
-                String firstName = data[2].trim();
-                String letterGrade = data[3].trim();
-                StudentRecord record = new StudentRecord(id, lastName, firstName, letterGrade, -1);
-                addRecord(record);
             }
-        } catch (FileNotFoundException e) {
-            System.out.println("File not found: " + filename); // throw exceptions if file is not found or if there is error reading file
-        } catch (Exception e) {
-            System.out.println("Error reading file: " + e.getMessage());
+            found.sort((a, b) -> Long.compare(a.getId(), b.getId()));
+            return found;
+        } finally {
+            structureLock.readLock().unlock();
         }
     }
 
-    public void mergeRecords() throws IOException {
-        Map<Long, StudentRecord> recordsMap = new HashMap<>();
+    // Counts the newest copy of every record that passes the filter, grouped by the first length bytes of a field,
+    // with the ID range of every group. The .db file is scanned in parallel chunks of mapped records that are tested
+    // in place, so no record is decoded. A record that was added again, or that has a newer copy in the .overflow
+    // file, counts once in the version a merge would keep.
+    public Map<String, Aggregate> aggregate(RecordFilter filter, RecordField groupBy, int length) throws IOException {
+        return aggregateTable(filter, groupBy == null ? null : new FieldKey(groupBy, length)).groups();
+    }
 
-        // Read all records from the main db file and load them 
-        reloadFromFileToMap(dbFile, recordsMap, false);
+    // The groups of an aggregate before they are decoded, so a sharded database can merge the tables of its shards
+    GroupTable aggregateTable(RecordFilter filter, FieldKey key) throws IOException {
+        long start = System.nanoTime();
+        writerLock.lock(); // taken before the structure lock, in the same order as merges
+        structureLock.readLock().lock();
+        try {
+            long slots;
+            boolean readded;
+            long[] shadowed;
+            GroupTable table = new GroupTable(key);
+            try {
+                slots = records.length() / RecordStore.RECORD_SIZE;
+                readded = index.size() < slots; // some id has an older copy in the file
+                shadowed = aggregateOverflow(filter, table);
+            } finally {
+                writerLock.unlock(); // adds go on while the index is walked and the file is scanned
+            }
+            long[] live = null; // without re-added ids every slot holds the newest copy, and later adds lie past the slots
+            if (readded) {
+                live = liveSlots();
+                slots = Math.max(slots, end(live));
+            }
+            try (RandomAccessFile db = new RandomAccessFile(baseFilename + ".db", "r")) {
+                table.merge(ForkJoinPool.commonPool().invoke(new RecordScan(db.getChannel(), 0, slots, live, shadowed, filter, key)));
+            }
+            dataStats.read(slots * RecordStore.RECORD_SIZE);
+            aggregateLatency.recordSince(start);
+            return table;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            structureLock.readLock().unlock();
+        }
+    }
+
+    // Marks the slot of every id in the index, which is the newest copy of the id, walking the index without the
+    // writer lock so adds are not held up for the whole pass. An id added or re-added during the walk is marked at
+    // whichever offset the walk sees, and the index only ever points at records that were written completely, so
+    // every id is counted once and the scan covers every marked slot. A load that rebuilds the index during the
+    // walk makes it start over.
+    private long[] liveSlots() throws IOException {
+        while (true) {
+            long[] live = new long[(int) ((records.length() / RecordStore.RECORD_SIZE + 63) >>> 6)];
+            try {
+                Iterator<BPlusTree.Entry> scan = index.scan(Long.MIN_VALUE, Long.MAX_VALUE);
+                while (scan.hasNext()) {
+                    long slot = scan.next().value / RecordStore.RECORD_SIZE;
+                    int word = (int) (slot >>> 6);
+                    if (word >= live.length) live = Arrays.copyOf(live, Math.max(word + 1, live.length * 2)); // added during the walk
+                    live[word] |= 1L << slot;
+                }
+                return live;
+            } catch (ConcurrentModificationException e) {
+                // the index was bulk loaded during the walk, walk the new one
+            }
+        }
+    }
+
+    // Slot just past the last marked one
+    private static long end(long[] live) {
+        for (int word = live.length - 1; word >= 0; word--) {
+            if (live[word] != 0) return word * 64L + 64 - Long.numberOfLeadingZeros(live[word]);
+        }
+        return 0;
+    }
+
+    // Adds the newest overflow copy of every id to the table and returns the sorted ids it shadows in the .db file,
+    // or null when the .overflow file is empty. Overflow records are newer than any .db copy, as in a merge, and
+    // the file is read into memory since a merge empties it.
+    private long[] aggregateOverflow(RecordFilter filter, GroupTable table) throws IOException {
+        int count = (int) (overflowFile.length() / RecordStore.RECORD_SIZE);
+        if (count == 0) return null;
+        byte[] bytes = new byte[count * RecordStore.RECORD_SIZE];
+        try (RandomAccessFile overflow = new RandomAccessFile(baseFilename + ".overflow", "r")) {
+            overflow.readFully(bytes);
+        }
+        overflowStats.read(bytes.length);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        Set<Long> seen = new HashSet<>();
+        for (int offset = bytes.length - RecordStore.RECORD_SIZE; offset >= 0; offset -= RecordStore.RECORD_SIZE) {
+            if (seen.add(buffer.getLong(offset)) && filter.test(buffer, offset)) table.add(buffer, offset); // the last copy is the newest
+        }
+        long[] shadowed = new long[seen.size()];
+        int i = 0;
+        for (long id : seen) {
+            shadowed[i++] = id;
+        }
+        Arrays.sort(shadowed);
+        return shadowed;
+    }
+
+    public void loadRecords(String filename) throws IOException {
+        long start = System.nanoTime();
+        writerLock.lock();
+        try {
+            File file = new File(filename);
+            if (!file.isFile()) {
+                System.out.println("File not found: " + filename); // throw exceptions if file is not found or if there is error reading file
+                return;
+            }
+            long loaded = load(sink -> new CsvLoader(Runtime.getRuntime().availableProcessors()).load(file, sink), true);
+            if (loaded > 0) System.out.println(loaded + " records loaded.");
+        } finally {
+            writerLock.unlock();
+            loadLatency.recordSince(start);
+        }
+    }
 
-        reloadFromFileToMap(overflowFile, recordsMap, true);
+    // Loads batches of parsed records without printing anything, for callers that parse the input themselves, like a
+    // sharded database handing every shard its part of a file. An error of the source is rethrown once the records
+    // before it are indexed and checkpointed.
+    void loadBatches(BatchSource source) throws IOException {
+        long start = System.nanoTime();
+        writerLock.lock();
+        try {
+            load(source, false);
+        } finally {
+            writerLock.unlock();
+            loadLatency.recordSince(start);
+        }
+    }
 
-        dbFile.setLength(0); // Reset the main database file
-        overflowFile.setLength(0); 
+    // Passes parsed batches of records to a load
+    interface BatchSource {
+        void feed(CsvLoader.BatchSink sink) throws IOException;
+    }
 
-        for (StudentRecord record : recordsMap.values()) {
-            dbFile.seek(dbFile.length()); 
-            dbFile.write(record.convertIntoBytes()); // Write the record
-            index.insert(record.getId(), dbFile.getFilePointer() - 64); // Rebuild the index with the new file positions
+    // Appends the batches of a source and returns the number of records loaded. With report set, skipped lines,
+    // progress and errors are printed instead of an error being thrown.
+    private long load(BatchSource source, boolean report) throws IOException {
+        checkpoint(); // loads are not logged, they are made durable by the checkpoint at the end instead
+        long[] loaded = new long[1];
+        IOException failure = null;
+        try (ExternalSorter sorter = new ExternalSorter(tempDirectory(), runPrefix(), 0, ExternalSorter.DEFAULT_MEMORY_ENTRIES);
+             ExternalSorter lastNames = new ExternalSorter(tempDirectory(), runPrefix(), 0, ExternalSorter.DEFAULT_MEMORY_ENTRIES);
+             ExternalSorter grades = new ExternalSorter(tempDirectory(), runPrefix(), 0, ExternalSorter.DEFAULT_MEMORY_ENTRIES)) {
+            try {
+                source.feed(batch -> {
+                    if (report) {
+                        for (String line : batch.skipped) {
+                            System.out.println("Skipping invalid record: " + line); // skips if there is an invalid record
+                        }
+                    }
+                    long offset = records.appendAll(batch.records, batch.count); // one write per parsed chunk
+                    for (int i = 0; i < batch.count; i++) {
+                        long at = offset + (long) i * RecordStore.RECORD_SIZE;
+                        bloom.add(batch.ids[i]);
+                        sorter.add(batch.ids[i], at, null); // index entries are collected and applied in key order at the end
+                        lastNames.add(lastNameIndex.key(batch.records, i * RecordStore.RECORD_SIZE, at), at, null);
+                        grades.add(gradeIndex.key(batch.records, i * RecordStore.RECORD_SIZE, at), at, null);
+                    }
+                    long before = loaded[0];
+                    loaded[0] += batch.count;
+                    recordsAdded.add(batch.count);
+                    if (report && loaded[0] / LOAD_PROGRESS_INTERVAL > before / LOAD_PROGRESS_INTERVAL) {
+                        System.out.println(loaded[0] + " records read...");
+                    }
+                });
+            } catch (Exception e) {
+                if (report) System.out.println("Error reading file: " + e.getMessage());
+                else failure = e instanceof IOException ? (IOException) e : new IOException(e.getMessage(), e);
+            }
+            updateIndex(index, sorter); // records written before an error still get indexed
+            updateIndex(lastNameIndex.tree(), lastNames);
+            updateIndex(gradeIndex.tree(), grades);
         }
+        if (bloom.isFull()) rebuildBloom(); // a large load outgrew the filter
+        checkpoint();
+        if (failure != null) throw failure;
+        return loaded[0];
+    }
 
+    public void mergeRecords() throws IOException {
+        compactRecords();
         System.out.println("Merge completed.");
     }
 
-    public void close() throws IOException {
-        dbFile.close();
+    // Merges without printing anything, for callers that merge several databases at once
+    public void compactRecords() throws IOException {
+        long start = System.nanoTime();
+        writerLock.lock();
+        structureLock.writeLock().lock(); // no reader may touch the files while they are rewritten
+        try {
+            merge();
+        } finally {
+            structureLock.writeLock().unlock();
+            writerLock.unlock();
+            mergeLatency.recordSince(start);
+        }
+    }
+
+    // Compacts the .db and .overflow files into a new .db file holding the newest copy of every record in ID order.
+    // The records go through sorted runs on disk, so memory stays bounded however large the files are. The new file
+    // is written next to the old one and renamed over it only once it is complete and forced, so a crash at any point
+    // leaves either the old or the new file in place, and the index is rebuilt from whichever one that is.
+    private void merge() throws IOException {
+        checkpoint(); // the log must not refer to offsets from before the rewrite
+        File db = new File(baseFilename + ".db");
+        File compacted = new File(baseFilename + ".db.compact");
+        try (ExternalSorter sorter = new ExternalSorter(tempDirectory(), runPrefix(), RecordStore.RECORD_SIZE, MERGE_MEMORY_ENTRIES);
+             ExternalSorter lastNames = new ExternalSorter(tempDirectory(), runPrefix(), 0, ExternalSorter.DEFAULT_MEMORY_ENTRIES);
+             ExternalSorter grades = new ExternalSorter(tempDirectory(), runPrefix(), 0, ExternalSorter.DEFAULT_MEMORY_ENTRIES)) {
+            // the tiebreak is a sequence number: .db records in file order, then the overflow records after them
+            long sequence = readRuns(db, records.length(), sorter, 0, dataStats);
+            readRuns(new File(baseFilename + ".overflow"), overflowFile.length(), sorter, sequence, overflowStats);
+
+            BloomFilter merged = BloomFilter.create(sorter.size(), falsePositiveRate); // rebuilt for the ids that remain
+            try (FileOutputStream file = new FileOutputStream(compacted);
+                 BufferedOutputStream out = new BufferedOutputStream(file, 1 << 16)) {
+                // the primary index is bulk loaded straight from the merge, which produces records in ID order
+                index.bulkLoad(new CompactedEntries(sorter.sorted(), out, lastNames, grades, merged), fillFactor);
+                out.flush();
+                file.getChannel().force(false);
+            }
+            lastNameIndex.tree().bulkLoad(entries(lastNames.sorted()), fillFactor);
+            gradeIndex.tree().bulkLoad(entries(grades.sorted()), fillFactor);
+            bloom = merged;
+        }
+
+        // Every overflow record is in the new file, so the .overflow file is set aside before the rename and dropped
+        // after it. Emptying it after the rename would leave it full next to the new file if the process died in
+        // between, and its older copies would win over records added again since. A crash before the rename finds
+        // the set-aside file next to the unfinished new file on open and puts it back.
+        File overflow = new File(baseFilename + ".overflow");
+        File setAside = new File(baseFilename + ".overflow.merged");
+        records.close();
         overflowFile.close();
-        index.close();
+        try {
+            Files.move(overflow.toPath(), setAside.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            forceDirectory(tempDirectory()); // set aside on disk before the new file can replace the old one
+            Files.move(compacted.toPath(), db.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            if (setAside.exists()) Files.move(setAside.toPath(), overflow.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            overflowFile = new RandomAccessFile(overflow, "rw");
+            records = openRecordStore(db); // the old file is untouched, but the indexes already point into the new one
+            rebuildIndexes();
+            compacted.delete();
+            throw e;
+        }
+        forceDirectory(tempDirectory()); // the rename must be on disk before the checkpoint marks the new indexes clean
+        setAside.delete();
+        records = openRecordStore(db);
+        overflowFile = new RandomAccessFile(overflow, "rw"); // a new, empty .overflow file
+        checkpoint();
+    }
+
+    // Adds the records of a file to the sorter, numbering them from the given sequence, and returns the next number
+    private static long readRuns(File file, long length, ExternalSorter sorter, long sequence, FileStats stats) throws IOException {
+        byte[] bytes = new byte[RecordStore.RECORD_SIZE];
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            for (long offset = 0; offset + RecordStore.RECORD_SIZE <= length; offset += RecordStore.RECORD_SIZE) {
+                in.readFully(bytes);
+                sorter.add(ByteBuffer.wrap(bytes).getLong(0), sequence++, bytes);
+                stats.read(RecordStore.RECORD_SIZE);
+            }
+        }
+        return sequence;
+    }
+
+    // Writes the newest copy of every id from the sorted records to the new file while presenting its (id, offset)
+    // pairs to the bulk loader, and collects the secondary index keys for the new offsets and the ids for the new
+    // Bloom filter on the way
+    private class CompactedEntries implements BPlusTree.EntrySource {
+        private final ExternalSorter.Cursor cursor;
+        private final OutputStream out;
+        private final ExternalSorter lastNames;
+        private final ExternalSorter grades;
+        private final BloomFilter filter;
+        private final byte[] record = new byte[RecordStore.RECORD_SIZE];
+        private boolean more; // whether the cursor is positioned on a record that has not been written yet
+        private long key;
+        private long offset = -RecordStore.RECORD_SIZE; // offset of the last record written to the new file
+
+        CompactedEntries(ExternalSorter.Cursor cursor, OutputStream out, ExternalSorter lastNames, ExternalSorter grades,
+                         BloomFilter filter) throws IOException {
+            this.cursor = cursor;
+            this.out = out;
+            this.lastNames = lastNames;
+            this.grades = grades;
+            this.filter = filter;
+            this.more = cursor.next();
+        }
+
+        public boolean next() throws IOException {
+            if (!more) return false;
+            key = cursor.key();
+            do {
+                System.arraycopy(cursor.payload(), 0, record, 0, RecordStore.RECORD_SIZE); // later copies of the id overwrite earlier ones
+            } while ((more = cursor.next()) && cursor.key() == key);
+            out.write(record);
+            dataStats.written(RecordStore.RECORD_SIZE);
+            offset += RecordStore.RECORD_SIZE;
+            lastNames.add(lastNameIndex.key(record, 0, offset), offset, null);
+            grades.add(gradeIndex.key(record, 0, offset), offset, null);
+            filter.add(key);
+            return true;
+        }
+
+        public long key() { return key; }
+        public long value() { return offset; }
+    }
+
+    // Sets how full the bulk loader packs index nodes, lower values leave more room for later inserts
+    public void setFillFactor(double fillFactor) {
+        if (fillFactor <= 0 || fillFactor > 1) throw new IllegalArgumentException("Fill factor must be in (0, 1]");
+        this.fillFactor = fillFactor;
+    }
+
+    // Applies a batch of (key, offset) pairs to an index, rebuilding it bottom-up unless the batch is small
+    private void updateIndex(BPlusTree tree, ExternalSorter sorter) throws IOException {
+        if (sorter.size() == 0) return;
+        if (sorter.size() < tree.size() / BULK_LOAD_RATIO) {
+            ExternalSorter.Cursor cursor = sorter.sorted();
+            while (cursor.next()) {
+                tree.insert(cursor.key(), cursor.tiebreak()); // sorted inserts keep touching the same few leaves
+            }
+            return;
+        }
+        Iterator<BPlusTree.Entry> existing = tree.scan(Long.MIN_VALUE, Long.MAX_VALUE);
+        while (existing.hasNext()) {
+            BPlusTree.Entry entry = existing.next();
+            sorter.add(entry.key, entry.value, null); // older offsets sort first, so the newly loaded record wins
+        }
+        tree.bulkLoad(entries(sorter.sorted()), fillFactor);
     }
-    private void reloadFromFileToMap(RandomAccessFile file, Map<Long, StudentRecord> map, boolean overwrite) throws IOException {
-        file.seek(0); // Go to the beginning of the file
-        while (file.getFilePointer() < file.length()) {
-            byte[] bytes = new byte[64]; // here we are again assuming the size of the record is 64 bytes to store
-            file.readFully(bytes);
-            StudentRecord record = StudentRecord.convertFromBytes(bytes);
-            if (overwrite || !map.containsKey(record.getId())) {
-                map.put(record.getId(), record); // Put the record in the map, and overwrite if there is existing content
+
+    // Rebuilds the primary and secondary indexes from the records in the .db file, later copies of an id win
+    private void rebuildIndexes() throws IOException {
+        try (ExternalSorter sorter = new ExternalSorter(tempDirectory(), runPrefix(), 0, ExternalSorter.DEFAULT_MEMORY_ENTRIES);
+             ExternalSorter lastNames = new ExternalSorter(tempDirectory(), runPrefix(), 0, ExternalSorter.DEFAULT_MEMORY_ENTRIES);
+             ExternalSorter grades = new ExternalSorter(tempDirectory(), runPrefix(), 0, ExternalSorter.DEFAULT_MEMORY_ENTRIES)) {
+            BloomFilter filter = BloomFilter.create(records.length() / RecordStore.RECORD_SIZE, falsePositiveRate);
+            byte[] bytes = new byte[64];
+            ByteBuffer record = ByteBuffer.wrap(bytes);
+            for (long offset = 0; offset < records.length(); offset += 64) {
+                records.read(offset, bytes);
+                sorter.add(record.getLong(0), offset, null); // only the id is needed, no need to decode the names
+                filter.add(record.getLong(0));
+                lastNames.add(lastNameIndex.key(bytes, 0, offset), offset, null);
+                grades.add(gradeIndex.key(bytes, 0, offset), offset, null);
             }
+            index.bulkLoad(entries(sorter.sorted()), fillFactor);
+            lastNameIndex.tree().bulkLoad(entries(lastNames.sorted()), fillFactor);
+            gradeIndex.tree().bulkLoad(entries(grades.sorted()), fillFactor);
+            bloom = filter;
+        }
+    }
+
+    // Builds a new Bloom filter from the keys of the primary index, sized for them and some growth
+    private void rebuildBloom() throws IOException {
+        BloomFilter filter = BloomFilter.create(index.size(), falsePositiveRate);
+        Iterator<BPlusTree.Entry> keys = index.scan(Long.MIN_VALUE, Long.MAX_VALUE); // one pass along the leaf chain
+        while (keys.hasNext()) {
+            filter.add(keys.next().key);
+        }
+        bloom = filter;
+    }
+
+    // Sets the false-positive rate of the Bloom filter and rebuilds it at that rate. Lower rates let fewer lookups
+    // of missing ids reach the index at the cost of a larger filter, one at 0.1% is about 1.7 times the size of one at 1%.
+    public void setFalsePositiveRate(double falsePositiveRate) throws IOException {
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) throw new IllegalArgumentException("False-positive rate must be in (0, 1)");
+        writerLock.lock();
+        try {
+            this.falsePositiveRate = falsePositiveRate;
+            rebuildBloom();
+            checkpoint();
+        } finally {
+            writerLock.unlock();
+        }
+    }
+
+    // Opens a secondary index file, starting over with an empty index if the file cannot be read
+    private static SecondaryIndex openSecondaryIndex(File file, int fieldOffset, int fieldSize) throws IOException {
+        try {
+            return SecondaryIndex.open(file, fieldOffset, fieldSize);
+        } catch (IOException e) {
+            file.delete(); // derived data, rebuilt from the records like the primary index
+            return SecondaryIndex.open(file, fieldOffset, fieldSize);
+        }
+    }
+
+    // Checkpoints once the log has grown past its limit, unless another thread is already writing
+    private void checkpointIfLogIsLarge() throws IOException {
+        if (wal.size() <= CHECKPOINT_BYTES || !writerLock.tryLock()) return;
+        try {
+            if (wal.size() > CHECKPOINT_BYTES) checkpoint();
+        } finally {
+            writerLock.unlock();
+        }
+    }
+
+    // Forces the records and index to disk, after which the log is no longer needed and is emptied.
+    // Called with the writer lock held, or from the constructor before the database is shared.
+    private void checkpoint() throws IOException {
+        bloom.save(new File(baseFilename + ".bloom"), index.size(), bloomStats); // before the index is marked clean, see initializeFiles
+        records.force();
+        overflowFile.getChannel().force(false);
+        index.flush();
+        lastNameIndex.tree().flush();
+        gradeIndex.tree().flush();
+        wal.truncate();
+    }
+
+    // Presents sorted (id, offset) pairs to the bulk loader
+    private static BPlusTree.EntrySource entries(ExternalSorter.Cursor cursor) {
+        return new BPlusTree.EntrySource() {
+            public boolean next() throws IOException { return cursor.next(); }
+            public long key() { return cursor.key(); }
+            public long value() { return cursor.tiebreak(); }
+        };
+    }
+
+    private RecordStore openRecordStore(File db) throws IOException {
+        return memoryMapped ? new MappedRecordStore(db, dataStats) : new FileRecordStore(db, dataStats);
+    }
+
+    // Forces the directory entries to disk, on platforms where a directory can be opened for that
+    private static void forceDirectory(File directory) {
+        try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // directories cannot be opened on some platforms, which then make renames durable on their own
+        }
+    }
+
+    // directory next to the database files where sort runs are spilled
+    private File tempDirectory() {
+        return new File(baseFilename).getAbsoluteFile().getParentFile();
+    }
+
+    // Start of the names of this database's sort run files, so a database only ever deletes its own
+    private String runPrefix() {
+        return new File(baseFilename).getName() + ".sort";
+    }
+
+    // Prints the counters, index shape and operation latencies gathered since the database was opened
+    public void showStats() throws IOException {
+        structureLock.readLock().lock();
+        try {
+            System.out.printf("Records: %d indexed, %d added since the database was opened%n", index.size(), recordsAdded.sum());
+            long leaves = index.leafCount();
+            System.out.printf("Index: height %d, order %d, %d leaves of %.0f keys on average, fill factor %.2f%n",
+                              index.getHeight(), index.getOrder(), leaves, (double) index.size() / leaves, index.fillFactor());
+            System.out.printf("Nodes: %d reads, %d writes, %d leaf splits, %d internal splits%n",
+                              index.nodeReads(), index.nodeWrites(), index.leafSplits(), index.internalSplits());
+            long passed = bloomPassed.sum();
+            long falsePositives = bloomFalsePositives.sum();
+            System.out.printf("Bloom filter: %d bytes, %.4f%% target false-positive rate, %d lookups answered without the index, "
+                              + "%d passed to it (%d hits, %d false positives)%n", bloom.sizeInBytes(), bloom.falsePositiveRate() * 100,
+                              bloomNegatives.sum(), passed, passed - falsePositives, falsePositives);
+            System.out.printf("%-16s %16s %16s%n", "File", "Bytes read", "Bytes written");
+            Map<String, Long> read = bytesRead();
+            Map<String, Long> written = bytesWritten();
+            for (String file : read.keySet()) {
+                System.out.printf("%-16s %16d %16d%n", file, read.get(file), written.get(file));
+            }
+            System.out.printf("%-14s %10s %12s %12s %12s %12s %12s %12s%n", "Latency (us)", "count", "mean", "p50", "p90", "p99", "p99.9", "max");
+            printLatency("addRecord", addLatency);
+            printLatency("showRecord", showLatency);
+            printLatency("loadRecords", loadLatency);
+            printLatency("mergeRecords", mergeLatency);
+            printLatency("aggregate", aggregateLatency);
+        } finally {
+            structureLock.readLock().unlock();
+        }
+    }
+
+    private static void printLatency(String operation, LatencyHistogram histogram) {
+        Map<String, Long> latency = latency(histogram);
+        System.out.printf("%-14s %10d %12d %12d %12d %12d %12d %12d%n", operation, latency.get("count"), latency.get("mean"),
+                          latency.get("p50"), latency.get("p90"), latency.get("p99"), latency.get("p99.9"), latency.get("max"));
+    }
+
+    // Summary of a latency histogram in microseconds
+    private static Map<String, Long> latency(LatencyHistogram histogram) {
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        Map<String, Long> summary = new LinkedHashMap<>();
+        summary.put("count", snapshot.count);
+        summary.put("mean", Math.round(snapshot.mean() / 1000));
+        summary.put("p50", snapshot.percentile(50) / 1000);
+        summary.put("p90", snapshot.percentile(90) / 1000);
+        summary.put("p99", snapshot.percentile(99) / 1000);
+        summary.put("p99.9", snapshot.percentile(99.9) / 1000);
+        summary.put("max", snapshot.max / 1000);
+        return summary;
+    }
+
+    private Map<String, Long> bytesRead() {
+        Map<String, Long> bytes = new LinkedHashMap<>();
+        bytes.put(".db", dataStats.bytesRead());
+        bytes.put(".index", index.fileStats().bytesRead());
+        bytes.put(".lastname.index", lastNameIndex.tree().fileStats().bytesRead());
+        bytes.put(".grade.index", gradeIndex.tree().fileStats().bytesRead());
+        bytes.put(".wal", wal.stats().bytesRead());
+        bytes.put(".overflow", overflowStats.bytesRead());
+        bytes.put(".bloom", bloomStats.bytesRead());
+        return bytes;
+    }
+
+    private Map<String, Long> bytesWritten() {
+        Map<String, Long> bytes = new LinkedHashMap<>();
+        bytes.put(".db", dataStats.bytesWritten());
+        bytes.put(".index", index.fileStats().bytesWritten());
+        bytes.put(".lastname.index", lastNameIndex.tree().fileStats().bytesWritten());
+        bytes.put(".grade.index", gradeIndex.tree().fileStats().bytesWritten());
+        bytes.put(".wal", wal.stats().bytesWritten());
+        bytes.put(".overflow", overflowStats.bytesWritten());
+        bytes.put(".bloom", bloomStats.bytesWritten());
+        return bytes;
+    }
+
+    // Takes an exclusive lock on the lock file, so a second process or Database cannot open the same files and corrupt them.
+    // The operating system drops the lock when the process dies, so a crash never leaves the database locked.
+    private void lock(File file) throws IOException {
+        lockFile = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = lockFile.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null; // held by another Database in this process
+        }
+        if (lock == null) {
+            lockFile.close();
+            throw new IOException("Database " + baseFilename + " is already open in another process");
+        }
+    }
+
+    // Registers the management bean, a database that cannot be registered (for instance one opened twice) still works without it
+    private void registerBean() {
+        try {
+            ObjectName name = new ObjectName("RecordManagementSystem:type=Database,name="
+                                             + ObjectName.quote(new File(baseFilename).getAbsolutePath()));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new Monitor(), name);
+            beanName = name;
+        } catch (JMException e) {
+            beanName = null;
+        }
+    }
+
+    private void unregisterBean() {
+        if (beanName == null) return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(beanName);
+        } catch (JMException e) {
+            // already gone
+        }
+        beanName = null;
+    }
+
+    // The management bean, reading the same statistics as the stats command
+    private class Monitor implements DatabaseMXBean {
+        public long getRecordCount() { return index.size(); }
+        public long getRecordsAdded() { return recordsAdded.sum(); }
+        public int getTreeHeight() { return index.getHeight(); }
+        public long getLeafCount() { return readIndex(index::leafCount); }
+        public double getFillFactor() { return readIndex(index::fillFactor); }
+        public long getNodeReads() { return index.nodeReads(); }
+        public long getNodeWrites() { return index.nodeWrites(); }
+        public long getLeafSplits() { return index.leafSplits(); }
+        public long getInternalSplits() { return index.internalSplits(); }
+        public long getBloomFilterBytes() { return bloom.sizeInBytes(); }
+        public double getBloomFilterFalsePositiveRate() { return bloom.falsePositiveRate(); }
+        public long getBloomFilterNegatives() { return bloomNegatives.sum(); }
+        public long getBloomFilterHits() { return bloomPassed.sum() - bloomFalsePositives.sum(); }
+        public long getBloomFilterFalsePositives() { return bloomFalsePositives.sum(); }
+        public Map<String, Long> getBytesRead() { return bytesRead(); }
+        public Map<String, Long> getBytesWritten() { return bytesWritten(); }
+        public Map<String, Long> getAddRecordLatency() { return latency(addLatency); }
+        public Map<String, Long> getShowRecordLatency() { return latency(showLatency); }
+        public Map<String, Long> getLoadRecordsLatency() { return latency(loadLatency); }
+        public Map<String, Long> getMergeRecordsLatency() { return latency(mergeLatency); }
+        public Map<String, Long> getAggregateLatency() { return latency(aggregateLatency); }
+
+        // Walks the index like a reader, attributes cannot throw checked exceptions
+        private <T> T readIndex(IndexQuery<T> query) {
+            structureLock.readLock().lock();
+            try {
+                return query.get();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                structureLock.readLock().unlock();
+            }
+        }
+    }
+
+    private interface IndexQuery<T> {
+        T get() throws IOException;
+    }
+
+    public void close() throws IOException {
+        writerLock.lock();
+        structureLock.writeLock().lock();
+        try {
+            unregisterBean();
+            checkpoint();
+            wal.close();
+            records.close();
+            overflowFile.close();
+            index.close();
+            lastNameIndex.tree().close();
+            gradeIndex.tree().close();
+            lockFile.close(); // releases the lock
+        } finally {
+            structureLock.writeLock().unlock();
+            writerLock.unlock();
         }
     }
 }
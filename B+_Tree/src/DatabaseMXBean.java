@@ -0,0 +1,48 @@
+import java.util.Map;
+
+// Management interface of an open Database, registered with the platform MBean server as
+// RecordManagementSystem:type=Database,name="<database file>" so JConsole or any JMX client can watch it.
+// Byte counts are keyed by file extension; latencies are in microseconds, keyed count, mean, p50, p90, p99, p99.9 and max.
+public interface DatabaseMXBean {
+    long getRecordCount();
+
+    long getRecordsAdded();
+
+    int getTreeHeight();
+
+    long getLeafCount();
+
+    double getFillFactor();
+
+    long getNodeReads();
+
+    long getNodeWrites();
+
+    long getLeafSplits();
+
+    long getInternalSplits();
+
+    long getBloomFilterBytes();
+
+    double getBloomFilterFalsePositiveRate(); // target rate the filter was sized for
+
+    long getBloomFilterNegatives(); // lookups of missing ids answered without the index
+
+    long getBloomFilterHits(); // lookups passed to the index that found the id
+
+    long getBloomFilterFalsePositives(); // lookups passed to the index that did not find the id
+
+    Map<String, Long> getBytesRead();
+
+    Map<String, Long> getBytesWritten();
+
+    Map<String, Long> getAddRecordLatency();
+
+    Map<String, Long> getShowRecordLatency();
+
+    Map<String, Long> getLoadRecordsLatency();
+
+    Map<String, Long> getMergeRecordsLatency();
+
+    Map<String, Long> getAggregateLatency();
+}
@@ -0,0 +1,245 @@
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+// Sorts fixed-width entries by a (key, tiebreak) pair, spilling sorted runs to temporary files when memory fills up
+class ExternalSorter implements Closeable {
+    static final int DEFAULT_MEMORY_ENTRIES = 1 << 20; // Entries buffered in memory before a run is written
+
+    private final File tempDir; // Directory for the run files
+    private final String prefix; // Start of the run file names, which tells whose runs they are
+    private final int payloadSize; // Bytes carried along with every entry, may be 0
+    private final int memoryEntries; // Maximum entries buffered in memory
+    private long[] keys; // Key and tiebreak of every buffered entry, two longs per entry
+    private byte[] payloads; // Payloads of the buffered entries
+    private int buffered; // Number of entries currently buffered
+    private long size; // Total number of entries added
+    private final List<File> runs = new ArrayList<>(); // Sorted runs spilled to disk
+    private final List<Closeable> openReaders = new ArrayList<>(); // Run readers to close when the sorter is closed
+
+    // Constructor that creates a sorter for entries carrying the given number of payload bytes
+    ExternalSorter(File tempDir, String prefix, int payloadSize, int memoryEntries) {
+        this.tempDir = tempDir;
+        this.prefix = prefix;
+        this.payloadSize = payloadSize;
+        this.memoryEntries = Math.max(memoryEntries, 1);
+        this.keys = new long[Math.min(this.memoryEntries, 1024) * 2];
+        this.payloads = new byte[Math.min(this.memoryEntries, 1024) * payloadSize];
+    }
+
+    // Adds an entry, the payload is copied and may be null when the payload size is 0
+    void add(long key, long tiebreak, byte[] payload) throws IOException {
+        if (buffered == memoryEntries) spill();
+        if (buffered * 2 == keys.length) grow();
+        keys[buffered * 2] = key;
+        keys[buffered * 2 + 1] = tiebreak;
+        if (payloadSize > 0) System.arraycopy(payload, 0, payloads, buffered * payloadSize, payloadSize);
+        buffered++;
+        size++;
+    }
+
+    // Total number of entries added
+    long size() {
+        return size;
+    }
+
+    // Returns a cursor over all entries in ascending (key, tiebreak) order, no entries may be added afterwards
+    Cursor sorted() throws IOException {
+        if (runs.isEmpty()) {
+            return new MemoryCursor(sortBuffer());
+        }
+        if (buffered > 0) spill(); // Everything goes through the merge once a run exists
+        return new MergeCursor();
+    }
+
+    // Deletes the run files
+    public void close() throws IOException {
+        for (Closeable reader : openReaders) {
+            reader.close();
+        }
+        for (File run : runs) {
+            run.delete();
+        }
+        runs.clear();
+    }
+
+    // Doubles the in-memory buffer up to the memory limit
+    private void grow() {
+        int capacity = Math.min(buffered * 2, memoryEntries);
+        long[] newKeys = new long[capacity * 2];
+        System.arraycopy(keys, 0, newKeys, 0, buffered * 2);
+        keys = newKeys;
+        byte[] newPayloads = new byte[capacity * payloadSize];
+        System.arraycopy(payloads, 0, newPayloads, 0, buffered * payloadSize);
+        payloads = newPayloads;
+    }
+
+    // Deletes the run files with the given prefix left in the directory by sorters that never closed, such as those
+    // of a process that crashed. Only whole names are matched, the prefix followed by the digits createTempFile adds.
+    static void deleteRuns(File tempDir, String prefix) {
+        File[] leftover = tempDir.listFiles((directory, name) -> name.startsWith(prefix) && name.endsWith(".run")
+                                           && name.substring(prefix.length(), name.length() - 4).matches("[0-9]+"));
+        if (leftover == null) return;
+        for (File run : leftover) {
+            run.delete();
+        }
+    }
+
+    // Writes the buffered entries to a new run file in sorted order
+    private void spill() throws IOException {
+        int[] order = sortBuffer();
+        File run = File.createTempFile(prefix, ".run", tempDir);
+        runs.add(run);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), 1 << 16))) {
+            for (int entry : order) {
+                out.writeLong(keys[entry * 2]);
+                out.writeLong(keys[entry * 2 + 1]);
+                out.write(payloads, entry * payloadSize, payloadSize);
+            }
+        }
+        buffered = 0;
+    }
+
+    // Sorts the positions of the buffered entries with a merge sort, which keeps equal entries in insertion order
+    private int[] sortBuffer() {
+        int[] order = new int[buffered];
+        for (int i = 0; i < buffered; i++) order[i] = i;
+        int[] scratch = new int[buffered];
+        for (int width = 1; width < buffered; width *= 2) {
+            for (int low = 0; low < buffered - width; low += width * 2) {
+                int mid = low + width;
+                int high = Math.min(low + width * 2, buffered);
+                int left = low, right = mid, out = low;
+                while (left < mid && right < high) {
+                    scratch[out++] = compare(order[right], order[left]) < 0 ? order[right++] : order[left++];
+                }
+                while (left < mid) scratch[out++] = order[left++];
+                while (right < high) scratch[out++] = order[right++];
+                System.arraycopy(scratch, low, order, low, high - low);
+            }
+        }
+        return order;
+    }
+
+    // Compares two buffered entries by key and then by tiebreak
+    private int compare(int a, int b) {
+        int result = Long.compare(keys[a * 2], keys[b * 2]);
+        return result != 0 ? result : Long.compare(keys[a * 2 + 1], keys[b * 2 + 1]);
+    }
+
+    // Reads the sorted entries one at a time
+    interface Cursor {
+        boolean next() throws IOException; // Moves to the next entry, false when there are none left
+
+        long key();
+
+        long tiebreak();
+
+        byte[] payload(); // Payload of the current entry, the array is reused between entries
+    }
+
+    // Cursor over the in-memory buffer when nothing was spilled
+    private class MemoryCursor implements Cursor {
+        private final int[] order;
+        private final byte[] payload = new byte[payloadSize];
+        private int position = -1;
+        private int entry;
+
+        MemoryCursor(int[] order) {
+            this.order = order;
+        }
+
+        public boolean next() {
+            if (++position >= order.length) return false;
+            entry = order[position];
+            System.arraycopy(payloads, entry * payloadSize, payload, 0, payloadSize);
+            return true;
+        }
+
+        public long key() {
+            return keys[entry * 2];
+        }
+
+        public long tiebreak() {
+            return keys[entry * 2 + 1];
+        }
+
+        public byte[] payload() {
+            return payload;
+        }
+    }
+
+    // Reads one run file sequentially
+    private class RunReader implements Closeable {
+        final int run; // Position of the run, breaks ties so equal entries keep the order they were added in
+        final DataInputStream in;
+        long key;
+        long tiebreak;
+        final byte[] payload = new byte[payloadSize];
+
+        RunReader(int run, File file) throws IOException {
+            this.run = run;
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+        }
+
+        // Reads the next entry of the run, false at the end of the file
+        boolean advance() throws IOException {
+            try {
+                key = in.readLong();
+            } catch (EOFException e) {
+                return false;
+            }
+            tiebreak = in.readLong();
+            in.readFully(payload);
+            return true;
+        }
+
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    // K-way merge over all runs using a priority queue of run readers
+    private class MergeCursor implements Cursor {
+        private final PriorityQueue<RunReader> queue = new PriorityQueue<>((a, b) -> {
+            int result = Long.compare(a.key, b.key);
+            if (result == 0) result = Long.compare(a.tiebreak, b.tiebreak);
+            return result != 0 ? result : Integer.compare(a.run, b.run);
+        });
+        private final byte[] payload = new byte[payloadSize];
+        private RunReader current; // Reader whose entry was returned last, re-queued on the next call
+        private long key;
+        private long tiebreak;
+
+        MergeCursor() throws IOException {
+            for (int i = 0; i < runs.size(); i++) {
+                RunReader reader = new RunReader(i, runs.get(i));
+                openReaders.add(reader);
+                if (reader.advance()) queue.add(reader);
+            }
+        }
+
+        public boolean next() throws IOException {
+            if (current != null && current.advance()) queue.add(current);
+            current = queue.poll();
+            if (current == null) return false;
+            key = current.key;
+            tiebreak = current.tiebreak;
+            System.arraycopy(current.payload, 0, payload, 0, payloadSize);
+            return true;
+        }
+
+        public long key() {
+            return key;
+        }
+
+        public long tiebreak() {
+            return tiebreak;
+        }
+
+        public byte[] payload() {
+            return payload;
+        }
+    }
+}
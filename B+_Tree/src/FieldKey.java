@@ -0,0 +1,74 @@
+import java.nio.ByteBuffer;
+
+// The leading bytes of a record field read as big-endian longs, so filters compare and aggregates group on a field
+// with a few masked long reads instead of decoding it. Every field ends at least 8 bytes before the end of its
+// record, so each word is one getLong even when only some of its bytes belong to the key.
+final class FieldKey {
+    final RecordField field;
+    final int length; // Leading bytes of the field that make up the key
+    final int words; // Longs the key is read into
+    private final long[] masks; // Keeps the bytes of each word that belong to the key
+
+    FieldKey(RecordField field, int length) {
+        if (length < 1 || length > field.size) {
+            throw new IllegalArgumentException("Key length must be between 1 and " + field.size + ": " + length);
+        }
+        this.field = field;
+        this.length = length;
+        this.words = (length + 7) / 8;
+        this.masks = new long[words];
+        for (int i = 0; i < words; i++) {
+            int bytes = Math.min(8, length - i * 8);
+            masks[i] = bytes == 8 ? -1L : -1L << (8 * (8 - bytes));
+        }
+    }
+
+    // Reads the key of the record at the offset into the array, starting at the given position
+    void read(ByteBuffer records, int offset, long[] into, int at) {
+        int base = offset + field.offset;
+        for (int i = 0; i < words; i++) {
+            into[at + i] = records.getLong(base + i * 8) & masks[i];
+        }
+    }
+
+    // Whether the record at the offset has the given key
+    boolean matches(ByteBuffer records, int offset, long[] key) {
+        int base = offset + field.offset;
+        for (int i = 0; i < words; i++) {
+            if ((records.getLong(base + i * 8) & masks[i]) != key[i]) return false;
+        }
+        return true;
+    }
+
+    // Encodes a trimmed value the way the loader stores it and returns its key
+    long[] encode(String value) {
+        ByteBuffer record = ByteBuffer.allocate(RecordStore.RECORD_SIZE);
+        if (field == RecordField.ID) {
+            record.putLong(0, Long.parseLong(value.trim()));
+        } else {
+            StudentRecord.putText(record, field.offset, value.trim(), field.size);
+        }
+        long[] key = new long[words];
+        read(record, 0, key, 0);
+        return key;
+    }
+
+    // Orders keys at the given positions like the stored bytes, which for the id is its signed value
+    int compare(long[] a, int at, long[] b, int bt) {
+        for (int i = 0; i < words; i++) {
+            int order = field == RecordField.ID ? Long.compare(a[at + i], b[bt + i]) : Long.compareUnsigned(a[at + i], b[bt + i]);
+            if (order != 0) return order;
+        }
+        return 0;
+    }
+
+    // Decodes the key at the given position back to the trimmed text of the field, or the id
+    String decode(long[] keys, int at) {
+        ByteBuffer record = ByteBuffer.allocate(RecordStore.RECORD_SIZE);
+        for (int i = 0; i < words; i++) {
+            record.putLong(field.offset + i * 8, keys[at + i]);
+        }
+        if (field == RecordField.ID) return Long.toString(record.getLong(0));
+        return StudentRecord.getText(record, field.offset, length);
+    }
+}
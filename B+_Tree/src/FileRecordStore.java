@@ -0,0 +1,91 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+// Record store that reads and writes the file with positional channel I/O. Positional reads do not move a shared
+// file pointer, so any number of threads can read while a single writer appends.
+class FileRecordStore implements RecordStore {
+    private final RandomAccessFile file; // The .db file
+    private final FileChannel channel;
+    private volatile long length; // Cached file length, so appends do not ask the file system every time
+    private final FileStats stats; // Shared with the stores that replace this one after a merge
+
+    FileRecordStore(File file, FileStats stats) throws IOException {
+        this.stats = stats;
+        this.file = new RandomAccessFile(file, "rw");
+        this.channel = this.file.getChannel();
+        this.length = this.file.length() - this.file.length() % RECORD_SIZE; // Drop a partially written record
+        if (length != this.file.length()) this.file.setLength(length); // so the next append starts on a record boundary
+    }
+
+    public long append(byte[] record) throws IOException {
+        long offset = length;
+        write(offset, record); // Write at the end of the file
+        return offset;
+    }
+
+    public long appendAll(byte[] records, int count) throws IOException {
+        long offset = length;
+        ByteBuffer buffer = ByteBuffer.wrap(records, 0, count * RECORD_SIZE);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, offset + buffer.position());
+        }
+        length = offset + (long) count * RECORD_SIZE;
+        stats.written((long) count * RECORD_SIZE);
+        return offset;
+    }
+
+    public void write(long offset, byte[] record) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(record, 0, RECORD_SIZE);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, offset + buffer.position());
+        }
+        length = Math.max(length, offset + RECORD_SIZE); // Published only after the bytes are in place
+        stats.written(RECORD_SIZE);
+    }
+
+    public void read(long offset, byte[] record) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(record, 0, RECORD_SIZE);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) throw new IOException("No record at offset " + offset);
+        }
+        stats.read(RECORD_SIZE);
+    }
+
+    public void readAll(long offset, byte[] records, int count) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(records, 0, count * RECORD_SIZE);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) throw new IOException("No record at offset " + (offset + buffer.position()));
+        }
+        stats.read((long) count * RECORD_SIZE);
+    }
+
+    public RecordView view(long offset, RecordView view) throws IOException {
+        ByteBuffer buffer = view.scratch(); // The record is copied into the view's own buffer
+        read(offset, buffer.array());
+        return view.point(buffer, 0);
+    }
+
+    public long length() {
+        return length;
+    }
+
+    public void clear() throws IOException {
+        file.setLength(0);
+        length = 0;
+    }
+
+    public void force() throws IOException {
+        channel.force(false);
+    }
+
+    public FileStats stats() {
+        return stats;
+    }
+
+    public void close() throws IOException {
+        file.close();
+    }
+}
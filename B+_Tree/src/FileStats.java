@@ -0,0 +1,24 @@
+import java.util.concurrent.atomic.LongAdder;
+
+// Bytes read from and written to one of the database files. The counters are striped, so threads that update
+// them at the same time do not contend on a single cache line.
+class FileStats {
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+
+    void read(long bytes) {
+        bytesRead.add(bytes);
+    }
+
+    void written(long bytes) {
+        bytesWritten.add(bytes);
+    }
+
+    long bytesRead() {
+        return bytesRead.sum();
+    }
+
+    long bytesWritten() {
+        return bytesWritten.sum();
+    }
+}
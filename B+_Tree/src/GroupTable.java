@@ -0,0 +1,114 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Open-addressing table of group aggregates keyed by the words of a FieldKey. Each scan task fills its own table
+// without allocating per record, and the tables are merged as the tasks join. A null key puts every record in
+// one group.
+final class GroupTable {
+    private static final int INITIAL_CAPACITY = 64; // Slots, always a power of two
+
+    private final FieldKey key;
+    private final int words; // Longs per key
+    private final long[] probe; // Key of the record being added
+    private long[] keys; // Keys of the slots, words longs each
+    private long[] counts; // Records per slot, 0 for a free slot
+    private long[] minIds;
+    private long[] maxIds;
+    private int size; // Used slots
+
+    GroupTable(FieldKey key) {
+        this.key = key;
+        this.words = key == null ? 0 : key.words;
+        this.probe = new long[words];
+        allocate(INITIAL_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity * words];
+        counts = new long[capacity];
+        minIds = new long[capacity];
+        maxIds = new long[capacity];
+    }
+
+    // Counts the record at the offset in its group
+    void add(ByteBuffer records, int offset) {
+        long id = records.getLong(offset);
+        if (key != null) key.read(records, offset, probe, 0);
+        accumulate(slot(probe, 0), 1, id, id);
+    }
+
+    // Adds the groups of another table to this one
+    void merge(GroupTable other) {
+        for (int i = 0; i < other.counts.length; i++) {
+            if (other.counts[i] > 0) accumulate(slot(other.keys, i * words), other.counts[i], other.minIds[i], other.maxIds[i]);
+        }
+    }
+
+    private void accumulate(int slot, long count, long minId, long maxId) {
+        if (counts[slot] == 0) {
+            minIds[slot] = minId;
+            maxIds[slot] = maxId;
+        } else {
+            minIds[slot] = Math.min(minIds[slot], minId);
+            maxIds[slot] = Math.max(maxIds[slot], maxId);
+        }
+        counts[slot] += count;
+    }
+
+    // Finds the slot of a key, claiming a free one when the key is new
+    private int slot(long[] key, int at) {
+        if ((size + 1) * 2 > counts.length) grow();
+        int mask = counts.length - 1;
+        int slot = hash(key, at) & mask;
+        while (counts[slot] != 0) {
+            if (Arrays.equals(keys, slot * words, slot * words + words, key, at, at + words)) return slot;
+            slot = (slot + 1) & mask;
+        }
+        System.arraycopy(key, at, keys, slot * words, words);
+        size++;
+        return slot;
+    }
+
+    private int hash(long[] key, int at) {
+        long hash = 0;
+        for (int i = 0; i < words; i++) {
+            hash = (hash ^ key[at + i]) * 0x9E3779B97F4A7C15L;
+        }
+        return (int) (hash >>> 32);
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        long[] oldCounts = counts;
+        long[] oldMinIds = minIds;
+        long[] oldMaxIds = maxIds;
+        allocate(oldCounts.length * 2);
+        size = 0;
+        for (int i = 0; i < oldCounts.length; i++) {
+            if (oldCounts[i] == 0) continue;
+            int slot = slot(oldKeys, i * words);
+            counts[slot] = oldCounts[i];
+            minIds[slot] = oldMinIds[i];
+            maxIds[slot] = oldMaxIds[i];
+        }
+    }
+
+    // The groups in the order of their stored bytes, keyed by their decoded text. Groups that differ only in
+    // padding decode to the same text and are combined.
+    Map<String, Aggregate> groups() {
+        Integer[] used = new Integer[size];
+        int n = 0;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) used[n++] = i;
+        }
+        if (key != null) Arrays.sort(used, (a, b) -> key.compare(keys, a * words, keys, b * words));
+        Map<String, Aggregate> groups = new LinkedHashMap<>();
+        for (int slot : used) {
+            String name = key == null ? "" : key.decode(keys, slot * words);
+            groups.merge(name, new Aggregate(counts[slot], minIds[slot], maxIds[slot]), Aggregate::combine);
+        }
+        return groups;
+    }
+}
@@ -0,0 +1,84 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Histogram of latencies in nanoseconds with HdrHistogram-style log-linear buckets: values below 32 get a bucket each,
+// and every power of two above is split into 32 equal sub-buckets, so every recorded value keeps about 3% precision
+// across the whole range of a long in under 2000 counters. Recording is one atomic increment and never allocates.
+class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(index(Long.MAX_VALUE) + 1);
+    private final LongAdder total = new LongAdder(); // Sum of all recorded values, for the mean
+    private final AtomicLong max = new AtomicLong();
+
+    // Records the time elapsed since the given System.nanoTime() reading
+    void recordSince(long start) {
+        record(System.nanoTime() - start);
+    }
+
+    void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        counts.incrementAndGet(index(nanos));
+        total.add(nanos);
+        if (nanos > max.get()) max.accumulateAndGet(nanos, Math::max);
+    }
+
+    // Copies the current counts, so percentiles can be computed while recording goes on
+    Snapshot snapshot() {
+        long[] copy = new long[counts.length()];
+        long count = 0;
+        for (int i = 0; i < copy.length; i++) {
+            copy[i] = counts.get(i);
+            count += copy[i];
+        }
+        return new Snapshot(copy, count, total.sum(), max.get());
+    }
+
+    // Bucket of a value: the value itself below 32, otherwise the power of two it falls in and its top 5 bits below the leading one
+    private static int index(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    // Largest value that falls in the given bucket
+    private static long highestValue(int index) {
+        if (index < SUB_BUCKETS) return index;
+        int shift = index / SUB_BUCKETS - 1;
+        long lowest = (long) (index % SUB_BUCKETS + SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    // Counts of a histogram at one moment
+    static class Snapshot {
+        private final long[] counts;
+        final long count; // Number of recorded values
+        final long total; // Sum of the recorded values
+        final long max; // Largest recorded value
+
+        Snapshot(long[] counts, long count, long total, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.total = total;
+            this.max = max;
+        }
+
+        // Smallest recorded value that the given percentage of values are at or below, to within the bucket precision
+        long percentile(double percent) {
+            if (count == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(percent / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) return Math.min(highestValue(i), max);
+            }
+            return max;
+        }
+
+        double mean() {
+            return count == 0 ? 0 : (double) total / count;
+        }
+    }
+}
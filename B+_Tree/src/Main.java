@@ -3,15 +3,40 @@ import java.util.Scanner;
 
 public class Main {
     public static void main(String[] args) {
-        if (args.length != 1) {
-            System.out.println("Usage: java Main <database_filename>");
+        String databaseName = null;
+        boolean mapped = false; // optional flag to serve the .db file from a memory mapping
+        boolean serve = false; // run as a server for other processes instead of reading commands
+        int port = RecordServer.DEFAULT_PORT;
+        int shards = 0; // number of shards of a new sharded database, 0 to open a database as it was created
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--mmap": mapped = true; break;
+                    case "--serve": serve = true; databaseName = args[++i]; break;
+                    case "--port": port = Integer.parseInt(args[++i]); break;
+                    case "--shards": shards = Integer.parseInt(args[++i]); break;
+                    default:
+                        if (databaseName != null || args[i].startsWith("--")) throw new IllegalArgumentException(args[i]);
+                        databaseName = args[i];
+                }
+            }
+        } catch (RuntimeException e) {
+            databaseName = null; // a missing or malformed value
+        }
+        if (databaseName == null) {
+            System.out.println("Usage: java Main <database_filename> [--mmap] [--shards N]");
+            System.out.println("       java Main --serve <database_filename> [--port N] [--mmap] [--shards N]");
             System.exit(1);  // Exit path if given input is not correct
         }
+        if (serve) {
+            serve(databaseName, mapped, shards, port);
+            return;
+        }
 
         try (Scanner scanner = new Scanner(System.in)) {
-            Database db = new Database(args[0]);  // Initialize db
+            RecordManager db = open(databaseName, mapped, shards);  // Initialize db
             while (true) {
-                System.out.println("Commands: add, show, load, merge, quit");
+                System.out.println("Commands: add, show, range, find-lastname, find-grade, aggregate, load, merge, stats, quit");
                 System.out.print("Enter command: ");
                 String command = scanner.nextLine();
 
@@ -36,6 +61,38 @@ public class Main {
                         id = Long.parseLong(scanner.nextLine()); // read the user input for the id number
                         db.showRecord(id); // show the record in correct format based on the id
                         break;
+                    case "range": // Show every record with an id between the two bounds, inclusive
+                        System.out.print("Enter first ID: ");
+                        long from = Long.parseLong(scanner.nextLine());
+                        System.out.print("Enter last ID: ");
+                        long to = Long.parseLong(scanner.nextLine());
+                        db.showRange(from, to); // walks the index leaves once instead of looking up every id
+                        break;
+                    case "find-lastname": // Show every record with the given last name through the last name index
+                        System.out.print("Enter Last Name to find: ");
+                        db.showLastName(scanner.nextLine());
+                        break;
+                    case "find-grade": // Show every record with the given letter grade through the grade index
+                        System.out.print("Enter Letter Grade to find: ");
+                        db.showGrade(scanner.nextLine());
+                        break;
+                    case "aggregate": // Count the records per value of a field, e.g. the grade distribution, by scanning the whole file
+                        System.out.print("Enter field to group by (lastname, firstname, grade, blank for none): ");
+                        String name = scanner.nextLine().trim();
+                        RecordField groupBy = field(name);
+                        if (groupBy == null && !name.isEmpty()) {
+                            System.out.println("Unknown field.");
+                            break;
+                        }
+                        int length = 0;
+                        if (groupBy != null) {
+                            System.out.print("Enter leading characters to group on (blank for the whole field): ");
+                            String leading = scanner.nextLine().trim();
+                            length = leading.isEmpty() ? groupBy.size() : Integer.parseInt(leading); // 1 groups by initial
+                            length = Math.max(1, Math.min(length, groupBy.size()));
+                        }
+                        db.showAggregate(RecordFilter.all(), groupBy, length);
+                        break;
                     case "load": //  loads records from a csv file that already exists to access
                         System.out.print("Enter filename to load from: ");
                         String filename = scanner.nextLine(); // read the file lines as input
@@ -44,6 +101,9 @@ public class Main {
                     case "merge": //  merges records
                         db.mergeRecords(); // method to merge records together
                         break;
+                    case "stats": // counters, index shape and latencies since the database was opened
+                        db.showStats();
+                        break;
                     default: // base case where there is no/invalid command
                         System.out.println("Unknown command.");
                         break;
@@ -53,4 +113,40 @@ public class Main {
             System.err.println("Error accessing the database: " + e.getMessage()); // throw an error if there is any error accessing the db or related contents
         }
     }
+
+    // The field named at the aggregate prompt, or null for a blank or unknown name
+    private static RecordField field(String name) {
+        switch (name) {
+            case "lastname": return RecordField.LAST_NAME;
+            case "firstname": return RecordField.FIRST_NAME;
+            case "grade": return RecordField.LETTER_GRADE;
+            default: return null;
+        }
+    }
+
+    // Opens a sharded database when shards are asked for or the files are already sharded, a single database otherwise
+    private static RecordManager open(String filename, boolean mapped, int shards) throws IOException {
+        if (shards > 0 || ShardedDatabase.exists(filename)) return new ShardedDatabase(filename, shards, mapped);
+        return new Database(filename, mapped);
+    }
+
+    // Serves the database on a local port until the process is stopped, then closes it cleanly
+    private static void serve(String filename, boolean mapped, int shards, int port) {
+        try {
+            RecordManager db = open(filename, mapped, shards);
+            RecordServer server = new RecordServer(db, port);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    server.close();
+                    db.close(); // checkpoints, so the next start needs no recovery
+                } catch (IOException e) {
+                    System.err.println("Error closing the database: " + e.getMessage());
+                }
+            }));
+            System.out.println("Serving " + filename + " on localhost:" + server.port());
+            server.serve();
+        } catch (IOException e) {
+            System.err.println("Error accessing the database: " + e.getMessage());
+        }
+    }
 }
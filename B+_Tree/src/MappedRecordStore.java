@@ -0,0 +1,143 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+// Record store that maps the file into memory in fixed-size chunks, so reads are served from the page cache without system calls.
+// The file grows a whole chunk at a time and is trimmed back to the records on close. If the process dies before that,
+// the zero-filled tail is trimmed on the next open: real records always have a non-zero overflow link, so an all-zero slot is never a record.
+// Reads use absolute buffer access and may run from any number of threads while a single writer appends;
+// the chunk array is replaced rather than modified when it grows, so readers always see a complete array.
+class MappedRecordStore implements RecordStore {
+    static final int CHUNK_SIZE = 1 << 26; // 64 MiB per mapping, a multiple of the record size so records never straddle chunks
+
+    private final RandomAccessFile file; // The .db file
+    private final FileChannel channel;
+    private volatile MappedByteBuffer[] chunks = new MappedByteBuffer[0]; // Mapped chunks in file order
+    private volatile long length; // Number of bytes of records, the file itself may be longer
+    private final FileStats stats; // Bytes copied to and from the mapping, shared with the stores that replace this one after a merge
+
+    MappedRecordStore(File file, FileStats stats) throws IOException {
+        this.stats = stats;
+        this.file = new RandomAccessFile(file, "rw");
+        this.channel = this.file.getChannel();
+        long size = this.file.length() - this.file.length() % RECORD_SIZE; // Ignore a partially written record
+        ensureMapped(size);
+        length = size;
+        while (length > 0 && isEmptySlot(length - RECORD_SIZE)) {
+            length -= RECORD_SIZE; // Drop the zero-filled growth a crash left behind
+        }
+    }
+
+    public long append(byte[] record) throws IOException {
+        long offset = length;
+        ensureMapped(offset + RECORD_SIZE);
+        chunk(offset).put(position(offset), record, 0, RECORD_SIZE);
+        length += RECORD_SIZE;
+        stats.written(RECORD_SIZE);
+        return offset;
+    }
+
+    public long appendAll(byte[] records, int count) throws IOException {
+        long offset = length;
+        long end = offset + (long) count * RECORD_SIZE;
+        ensureMapped(end);
+        int copied = 0;
+        for (long at = offset; at < end; ) {
+            int size = (int) Math.min(end - at, CHUNK_SIZE - position(at)); // Split the copy where a chunk ends
+            chunk(at).put(position(at), records, copied, size);
+            copied += size;
+            at += size;
+        }
+        length = end;
+        stats.written(end - offset);
+        return offset;
+    }
+
+    public void write(long offset, byte[] record) throws IOException {
+        ensureMapped(offset + RECORD_SIZE);
+        chunk(offset).put(position(offset), record, 0, RECORD_SIZE);
+        length = Math.max(length, offset + RECORD_SIZE);
+        stats.written(RECORD_SIZE);
+    }
+
+    public void read(long offset, byte[] record) {
+        chunk(offset).get(position(offset), record, 0, RECORD_SIZE);
+        stats.read(RECORD_SIZE);
+    }
+
+    public void readAll(long offset, byte[] records, int count) {
+        long end = offset + (long) count * RECORD_SIZE;
+        int copied = 0;
+        for (long at = offset; at < end; ) {
+            int size = (int) Math.min(end - at, CHUNK_SIZE - position(at)); // Split the copy where a chunk ends
+            chunk(at).get(position(at), records, copied, size);
+            copied += size;
+            at += size;
+        }
+        stats.read(end - offset);
+    }
+
+    public RecordView view(long offset, RecordView view) {
+        stats.read(RECORD_SIZE);
+        return view.point(chunk(offset), position(offset)); // No copy, the view reads straight from the mapping
+    }
+
+    public long length() {
+        return length;
+    }
+
+    public void clear() throws IOException {
+        chunks = new MappedByteBuffer[0]; // Mappings are released when they are garbage collected
+        file.setLength(0);
+        length = 0;
+    }
+
+    public void force() {
+        for (MappedByteBuffer chunk : chunks) {
+            chunk.force();
+        }
+    }
+
+    public FileStats stats() {
+        return stats;
+    }
+
+    public void close() throws IOException {
+        force();
+        chunks = new MappedByteBuffer[0];
+        file.setLength(length); // Trim the unused part of the last chunk
+        file.close();
+    }
+
+    // Maps further chunks until the given number of bytes is covered, growing the file if needed
+    private void ensureMapped(long size) throws IOException {
+        MappedByteBuffer[] mapped = chunks;
+        while ((long) mapped.length * CHUNK_SIZE < size) {
+            MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_WRITE, (long) mapped.length * CHUNK_SIZE, CHUNK_SIZE);
+            mapped = Arrays.copyOf(mapped, mapped.length + 1);
+            mapped[mapped.length - 1] = chunk;
+        }
+        chunks = mapped;
+    }
+
+    // Checks whether the record slot at the given offset is all zero bytes
+    private boolean isEmptySlot(long offset) {
+        MappedByteBuffer chunk = chunk(offset);
+        int position = position(offset);
+        for (int i = 0; i < RECORD_SIZE; i += 8) {
+            if (chunk.getLong(position + i) != 0) return false;
+        }
+        return true;
+    }
+
+    private MappedByteBuffer chunk(long offset) {
+        return chunks[(int) (offset / CHUNK_SIZE)];
+    }
+
+    private static int position(long offset) {
+        return (int) (offset % CHUNK_SIZE);
+    }
+}
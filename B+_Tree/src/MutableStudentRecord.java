@@ -0,0 +1,72 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Reusable student record that is read, changed and written in its 64 byte form. Unlike StudentRecord it owns a copy
+// of the record bytes rather than Strings, so decoding into it, encoding from it and comparing or appending its
+// fields never allocate when the names are ASCII. One holder per thread or per batch slot can be reused for every record.
+public class MutableStudentRecord {
+    private final byte[] bytes = new byte[RecordStore.RECORD_SIZE]; // The record in its stored form
+    private final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    private boolean empty = true; // Whether the holder holds no record
+
+    // Copies the record at the given position of the buffer into the holder
+    public MutableStudentRecord readFrom(ByteBuffer source, int offset) {
+        source.get(offset, bytes, 0, bytes.length);
+        empty = false;
+        return this;
+    }
+
+    // Writes the held record at the given position of the buffer
+    public void writeTo(ByteBuffer target, int offset) {
+        target.put(offset, bytes, 0, bytes.length);
+    }
+
+    // Replaces every field, encoding the names straight into the holder
+    public MutableStudentRecord set(long id, CharSequence lastName, CharSequence firstName, CharSequence letterGrade, long overflowLink) {
+        buffer.putLong(0, id);
+        StudentRecord.putText(buffer, 8, lastName, 20);
+        StudentRecord.putText(buffer, 28, firstName, 20);
+        StudentRecord.putText(buffer, 48, letterGrade, 2);
+        buffer.putLong(50, overflowLink);
+        buffer.putInt(58, 0).putShort(62, (short) 0);
+        empty = false;
+        return this;
+    }
+
+    // Marks the holder as holding no record, which is how a multi-get reports an ID that does not exist
+    public void clear() {
+        Arrays.fill(bytes, (byte) 0);
+        empty = true;
+    }
+
+    public boolean isEmpty() { return empty; }
+    public long getId() { return buffer.getLong(0); }
+    public long getOverflowLink() { return buffer.getLong(50); }
+    public String getLastName() { return StudentRecord.getText(buffer, 8, 20); }
+    public String getFirstName() { return StudentRecord.getText(buffer, 28, 20); }
+    public String getLetterGrade() { return StudentRecord.getText(buffer, 48, 2); }
+
+    // Appends the trimmed fields to a builder without creating Strings; non-ASCII names are decoded first
+    public StringBuilder appendLastName(StringBuilder builder) { return appendText(builder, 8, 20); }
+    public StringBuilder appendFirstName(StringBuilder builder) { return appendText(builder, 28, 20); }
+    public StringBuilder appendLetterGrade(StringBuilder builder) { return appendText(builder, 48, 2); }
+
+    // Copies the held record into a standalone StudentRecord
+    public StudentRecord toRecord() {
+        return StudentRecord.decode(buffer, 0);
+    }
+
+    private StringBuilder appendText(StringBuilder builder, int offset, int size) {
+        int start = offset;
+        int end = offset + size;
+        while (start < end && (bytes[start] & 0xFF) <= ' ') start++;
+        while (end > start && (bytes[end - 1] & 0xFF) <= ' ') end--;
+        for (int i = start; i < end; i++) {
+            if (bytes[i] < 0) return builder.append(StudentRecord.getText(buffer, offset, size)); // Not ASCII
+        }
+        for (int i = start; i < end; i++) {
+            builder.append((char) bytes[i]);
+        }
+        return builder;
+    }
+}
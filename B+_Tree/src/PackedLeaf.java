@@ -0,0 +1,204 @@
+import java.nio.ByteBuffer;
+
+// Layout of a B+ tree leaf page with compressed entries. Keys are stored as the distance from the leaf's first key and
+// values as the distance from its smallest value, shifted right by the trailing zero bits every distance shares, so
+// record offsets, which are multiples of 64, become slot numbers. Every distance in a leaf takes the same number of
+// bytes, just enough for the largest one, so entry i is found by multiplication and a leaf is searched with a binary
+// search over the packed keys without decoding them. Dense student ids and nearby records need 2 or 3 bytes per key
+// and value instead of 8 each.
+//
+// Page layout:
+//   0  node type (1 for a leaf)      1  bytes per key       2  bytes per value     3  value shift
+//   4  number of entries             8  page id of the next leaf, 0 for the last leaf
+//   16 first key                     24 smallest value
+//   32 key distances, followed by the value distances after room for as many keys as the widths allow
+// The last 8 bytes of the page stay free so every distance can be read with a single getLong.
+class PackedLeaf {
+    static final int KEY_WIDTH = 1;
+    static final int VALUE_WIDTH = 2;
+    static final int VALUE_SHIFT = 3;
+    static final int BASE_KEY = 16;
+    static final int BASE_VALUE = 24;
+    static final int ENTRIES = 32;
+
+    private PackedLeaf() {
+    }
+
+    // Bytes available for the entries of a leaf in a page of the given size
+    static int space(int pageSize) {
+        return pageSize - ENTRIES - 8;
+    }
+
+    // Most entries a leaf can hold, reached when every distance fits in one byte
+    static int maxEntries(int pageSize) {
+        return space(pageSize) / 2;
+    }
+
+    // Bytes the entries of a leaf take up
+    static int usedBytes(ByteBuffer buffer) {
+        return buffer.getInt(4) * (buffer.get(KEY_WIDTH) + buffer.get(VALUE_WIDTH));
+    }
+
+    // Entries that fit in a page with the given widths
+    private static int capacity(int pageSize, int keyWidth, int valueWidth) {
+        return space(pageSize) / (keyWidth + valueWidth);
+    }
+
+    private static int valuesStart(ByteBuffer buffer, int keyWidth) {
+        return ENTRIES + capacity(buffer.capacity(), keyWidth, buffer.get(VALUE_WIDTH)) * keyWidth;
+    }
+
+    // Reads the key in the given slot
+    static long key(ByteBuffer buffer, int index) {
+        int keyWidth = buffer.get(KEY_WIDTH);
+        return buffer.getLong(BASE_KEY) + read(buffer, ENTRIES + index * keyWidth, keyWidth);
+    }
+
+    // Reads the value in the given slot
+    static long value(ByteBuffer buffer, int index) {
+        int valueWidth = buffer.get(VALUE_WIDTH);
+        long distance = read(buffer, valuesStart(buffer, buffer.get(KEY_WIDTH)) + index * valueWidth, valueWidth);
+        return buffer.getLong(BASE_VALUE) + (distance << buffer.get(VALUE_SHIFT));
+    }
+
+    // Binary search for the first slot from low on whose key is not less than the given key. The key is turned into
+    // a distance once, after which the packed distances are compared as they are.
+    static int lowerBound(ByteBuffer buffer, int low, int count, long key) {
+        long base = buffer.getLong(BASE_KEY);
+        if (key <= base) return low; // Every key of the leaf is at least the first one
+        long target = key - base;
+        int keyWidth = buffer.get(KEY_WIDTH);
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (Long.compareUnsigned(read(buffer, ENTRIES + mid * keyWidth, keyWidth), target) < 0) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    // Copies the entries from the given slot on into the arrays and returns how many there were
+    static int decode(ByteBuffer buffer, int from, long[] keys, long[] values) {
+        int count = buffer.getInt(4);
+        int keyWidth = buffer.get(KEY_WIDTH);
+        int valueWidth = buffer.get(VALUE_WIDTH);
+        int shift = buffer.get(VALUE_SHIFT);
+        long baseKey = buffer.getLong(BASE_KEY);
+        long baseValue = buffer.getLong(BASE_VALUE);
+        int valuesStart = valuesStart(buffer, keyWidth);
+        for (int i = from; i < count; i++) {
+            keys[i - from] = baseKey + read(buffer, ENTRIES + i * keyWidth, keyWidth);
+            values[i - from] = baseValue + (read(buffer, valuesStart + i * valueWidth, valueWidth) << shift);
+        }
+        return count - from;
+    }
+
+    // Whether one more entry fits the leaf without changing the widths
+    static boolean hasRoom(ByteBuffer buffer, long key, long value) {
+        int count = buffer.getInt(4);
+        int keyWidth = buffer.get(KEY_WIDTH);
+        int valueWidth = buffer.get(VALUE_WIDTH);
+        long base = buffer.getLong(BASE_KEY);
+        return count > 0 && count < capacity(buffer.capacity(), keyWidth, valueWidth) && key >= base
+               && fits(key - base, keyWidth) && valueFits(buffer, value, valueWidth);
+    }
+
+    // Inserts an entry at the given slot without changing the widths, or returns false when the entry does not fit them
+    static boolean insertInPlace(ByteBuffer buffer, int loc, long key, long value) {
+        if (!hasRoom(buffer, key, value)) return false;
+        int count = buffer.getInt(4);
+        int keyWidth = buffer.get(KEY_WIDTH);
+        int valueWidth = buffer.get(VALUE_WIDTH);
+        long base = buffer.getLong(BASE_KEY);
+        byte[] data = buffer.array();
+        int valuesStart = valuesStart(buffer, keyWidth);
+        System.arraycopy(data, ENTRIES + loc * keyWidth, data, ENTRIES + (loc + 1) * keyWidth, (count - loc) * keyWidth);
+        System.arraycopy(data, valuesStart + loc * valueWidth, data, valuesStart + (loc + 1) * valueWidth, (count - loc) * valueWidth);
+        write(buffer, ENTRIES + loc * keyWidth, keyWidth, key - base);
+        writeValue(buffer, valuesStart + loc * valueWidth, valueWidth, value);
+        buffer.putInt(4, count + 1);
+        return true;
+    }
+
+    // Replaces the value in the given slot without changing the widths, or returns false when it does not fit them
+    static boolean setInPlace(ByteBuffer buffer, int loc, long value) {
+        int valueWidth = buffer.get(VALUE_WIDTH);
+        if (!valueFits(buffer, value, valueWidth)) return false;
+        writeValue(buffer, valuesStart(buffer, buffer.get(KEY_WIDTH)) + loc * valueWidth, valueWidth, value);
+        return true;
+    }
+
+    // Rewrites the leaf with the entries in [from, to) of the arrays, which must be in ascending key order, choosing the
+    // widths that suit them. Returns false and leaves the page as it was when they do not fit.
+    static boolean encode(ByteBuffer buffer, long[] keys, long[] values, int from, int to) {
+        int count = to - from;
+        long baseKey = count == 0 ? 0 : keys[from];
+        long baseValue = count == 0 ? 0 : values[from];
+        long maxValue = baseValue;
+        long valueBits = 0; // Bits set in any distance between values
+        for (int i = from; i < to; i++) {
+            baseValue = Math.min(baseValue, values[i]);
+            maxValue = Math.max(maxValue, values[i]);
+            valueBits |= values[i] - values[from];
+        }
+        int shift = shift(valueBits);
+        int keyWidth = width(count == 0 ? 0 : keys[to - 1] - baseKey);
+        int valueWidth = width((maxValue - baseValue) >>> shift);
+        if (count > capacity(buffer.capacity(), keyWidth, valueWidth)) return false;
+
+        buffer.put(KEY_WIDTH, (byte) keyWidth);
+        buffer.put(VALUE_WIDTH, (byte) valueWidth);
+        buffer.put(VALUE_SHIFT, (byte) shift);
+        buffer.putInt(4, count);
+        buffer.putLong(BASE_KEY, baseKey);
+        buffer.putLong(BASE_VALUE, baseValue);
+        int valuesStart = valuesStart(buffer, keyWidth);
+        for (int i = from; i < to; i++) {
+            write(buffer, ENTRIES + (i - from) * keyWidth, keyWidth, keys[i] - baseKey);
+            write(buffer, valuesStart + (i - from) * valueWidth, valueWidth, (values[i] - baseValue) >>> shift);
+        }
+        return true;
+    }
+
+    // Bytes per entry of a leaf whose keys span the given distance and whose values span the given distance
+    // and share the trailing zeros of the given bits
+    static int entryBytes(long keySpan, long valueSpan, long valueBits) {
+        return width(keySpan) + width(valueSpan >>> shift(valueBits));
+    }
+
+    // Number of trailing zero bits shared by every distance between values
+    private static int shift(long valueBits) {
+        return valueBits == 0 ? 0 : Long.numberOfTrailingZeros(valueBits);
+    }
+
+    // Number of bytes an unsigned distance needs, at least one
+    private static int width(long distance) {
+        return Math.max(1, (71 - Long.numberOfLeadingZeros(distance)) / 8);
+    }
+
+    private static boolean fits(long distance, int width) {
+        return width == 8 || distance >>> (width * 8) == 0;
+    }
+
+    private static boolean valueFits(ByteBuffer buffer, long value, int valueWidth) {
+        long distance = value - buffer.getLong(BASE_VALUE);
+        long mask = (1L << buffer.get(VALUE_SHIFT)) - 1;
+        return value >= buffer.getLong(BASE_VALUE) && (distance & mask) == 0 && fits(distance >>> buffer.get(VALUE_SHIFT), valueWidth);
+    }
+
+    private static void writeValue(ByteBuffer buffer, int position, int valueWidth, long value) {
+        write(buffer, position, valueWidth, (value - buffer.getLong(BASE_VALUE)) >>> buffer.get(VALUE_SHIFT));
+    }
+
+    // Reads an unsigned big-endian number of the given width, relying on the 8 free bytes at the end of the page
+    private static long read(ByteBuffer buffer, int position, int width) {
+        return buffer.getLong(position) >>> (64 - width * 8);
+    }
+
+    private static void write(ByteBuffer buffer, int position, int width, long distance) {
+        for (int i = width - 1; i >= 0; i--) {
+            buffer.put(position + i, (byte) distance);
+            distance >>>= 8;
+        }
+    }
+}
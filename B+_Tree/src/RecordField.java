@@ -0,0 +1,20 @@
+// The fixed-width fields of a stored 64 byte record, which aggregates filter and group on in place
+public enum RecordField {
+    ID(0, 8),
+    LAST_NAME(8, 20),
+    FIRST_NAME(28, 20),
+    LETTER_GRADE(48, 2);
+
+    final int offset; // Byte offset of the field in the record
+    final int size; // Bytes the field takes; text is zero padded
+
+    RecordField(int offset, int size) {
+        this.offset = offset;
+        this.size = size;
+    }
+
+    // Number of bytes the field takes in a record
+    public int size() {
+        return size;
+    }
+}
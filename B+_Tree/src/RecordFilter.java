@@ -0,0 +1,53 @@
+import java.nio.ByteBuffer;
+
+// A condition on a stored record, tested against its raw bytes at an offset of a buffer so a scan never builds
+// a StudentRecord. Text values are compared the way the loader stores them: trimmed and zero padded.
+@FunctionalInterface
+public interface RecordFilter {
+    boolean test(ByteBuffer records, int offset);
+
+    // Passes every record
+    static RecordFilter all() {
+        return (records, offset) -> true;
+    }
+
+    // Passes records with IDs in [from, to]
+    static RecordFilter idBetween(long from, long to) {
+        return (records, offset) -> {
+            long id = records.getLong(offset);
+            return id >= from && id <= to;
+        };
+    }
+
+    // Passes records whose field holds exactly the value
+    static RecordFilter equalTo(RecordField field, String value) {
+        FieldKey key = new FieldKey(field, field.size);
+        long[] expected = key.encode(value);
+        return (records, offset) -> key.matches(records, offset, expected);
+    }
+
+    // Passes records whose text field starts with the prefix
+    static RecordFilter startsWith(RecordField field, String prefix) {
+        if (field == RecordField.ID) throw new IllegalArgumentException("The id is not a text field");
+        ByteBuffer encoded = ByteBuffer.allocate(RecordStore.RECORD_SIZE);
+        StudentRecord.putText(encoded, 0, prefix.trim(), field.size);
+        int length = 0;
+        while (length < field.size && encoded.get(length) != 0) length++;
+        if (length == 0) return all();
+        FieldKey key = new FieldKey(field, length);
+        long[] expected = key.encode(prefix);
+        return (records, offset) -> key.matches(records, offset, expected);
+    }
+
+    default RecordFilter and(RecordFilter other) {
+        return (records, offset) -> test(records, offset) && other.test(records, offset);
+    }
+
+    default RecordFilter or(RecordFilter other) {
+        return (records, offset) -> test(records, offset) || other.test(records, offset);
+    }
+
+    default RecordFilter negate() {
+        return (records, offset) -> !test(records, offset);
+    }
+}
@@ -0,0 +1,92 @@
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+// Operations of a student record database, shared by a single Database and a ShardedDatabase so the command line
+// and the record server work with either. The show and add methods print their results for interactive use.
+public interface RecordManager {
+    // Adds a record without printing anything, returning once it is durable. Lookups may see it before that.
+    void insertRecord(StudentRecord record) throws IOException;
+
+    // Adds several records without printing anything, returning once all of them are durable
+    void insertRecords(List<StudentRecord> batch) throws IOException;
+
+    // Returns the record with the id, or null when there is none
+    StudentRecord getRecord(long id) throws IOException;
+
+    // Returns the records with the given ids in the same order, with null for ids that have no record
+    StudentRecord[] getRecords(long[] ids) throws IOException;
+
+    // Returns the records with IDs in [from, to] in ID order
+    List<StudentRecord> scanRecords(long from, long to) throws IOException;
+
+    // Returns the records with the given last name in ID order
+    List<StudentRecord> findByLastName(String lastName) throws IOException;
+
+    // Returns the records with the given letter grade in ID order
+    List<StudentRecord> findByGrade(String letterGrade) throws IOException;
+
+    // Counts the records that pass the filter, grouped by the first length bytes of a field or all together when
+    // groupBy is null, with the ID range of every group. Groups come in the order of the stored bytes of the field.
+    // The length counts UTF-8 bytes, so a group of one byte holds every name whose first character starts with it.
+    Map<String, Aggregate> aggregate(RecordFilter filter, RecordField groupBy, int length) throws IOException;
+
+    void showRecord(long id) throws IOException;
+
+    void loadRecords(String filename) throws IOException;
+
+    void mergeRecords() throws IOException;
+
+    void showStats() throws IOException;
+
+    void close() throws IOException;
+
+    default void addRecord(StudentRecord record) throws IOException {
+        insertRecord(record);
+        System.out.println("Record added.");
+    }
+
+    default void addRecords(List<StudentRecord> batch) throws IOException {
+        insertRecords(batch);
+        System.out.println(batch.size() + " record(s) added.");
+    }
+
+    // Groups by the whole field
+    default Map<String, Aggregate> aggregate(RecordFilter filter, RecordField groupBy) throws IOException {
+        return aggregate(filter, groupBy, groupBy.size());
+    }
+
+    // Number of records that pass the filter
+    default long count(RecordFilter filter) throws IOException {
+        Aggregate all = aggregate(filter, null, 0).get("");
+        return all == null ? 0 : all.getCount();
+    }
+
+    default void showAggregate(RecordFilter filter, RecordField groupBy, int length) throws IOException {
+        Map<String, Aggregate> groups = aggregate(filter, groupBy, length);
+        for (Map.Entry<String, Aggregate> group : groups.entrySet()) {
+            System.out.println((groupBy == null ? "All records" : group.getKey()) + ": " + group.getValue());
+        }
+        System.out.println(groups.size() + " group(s) found.");
+    }
+
+    default void showRange(long from, long to) throws IOException {
+        showFound(scanRecords(from, to)); // summary line so an empty range is still reported
+    }
+
+    default void showLastName(String lastName) throws IOException {
+        showFound(findByLastName(lastName));
+    }
+
+    default void showGrade(String letterGrade) throws IOException {
+        showFound(findByGrade(letterGrade));
+    }
+
+    private static void showFound(List<StudentRecord> found) {
+        for (StudentRecord record : found) {
+            System.out.printf("ID: %d, Last Name: %s, First Name: %s, Grade: %s\n", // this is how the system outputs the records correctly
+                              record.getId(), record.getLastName(), record.getFirstName(), record.getLetterGrade());
+        }
+        System.out.println(found.size() + " record(s) found.");
+    }
+}
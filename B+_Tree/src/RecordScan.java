@@ -0,0 +1,60 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.RecursiveTask;
+
+// Aggregates a range of record slots of a .db file on the fork-join pool. The range is halved down to chunks that
+// are mapped read-only and scanned in place, testing and grouping the raw bytes of every record, and the tables
+// of the halves are merged as they join. Records that are not the newest copy of their id are skipped.
+class RecordScan extends RecursiveTask<GroupTable> {
+    private static final long serialVersionUID = 1L;
+    static final int CHUNK_RECORDS = 1 << 16; // Records mapped and scanned by one task, 4 MiB
+
+    private final FileChannel channel;
+    private final long from; // First slot of the range
+    private final long to; // Slot just past the range
+    private final long[] live; // Bit per slot set for the newest copy of each id, null when every slot is the newest
+    private final long[] shadowed; // Sorted ids with a newer copy in the .overflow file, null when there are none
+    private final RecordFilter filter;
+    private final FieldKey key;
+
+    RecordScan(FileChannel channel, long from, long to, long[] live, long[] shadowed, RecordFilter filter, FieldKey key) {
+        this.channel = channel;
+        this.from = from;
+        this.to = to;
+        this.live = live;
+        this.shadowed = shadowed;
+        this.filter = filter;
+        this.key = key;
+    }
+
+    @Override
+    protected GroupTable compute() {
+        if (to - from <= CHUNK_RECORDS) return scan();
+        long middle = (from + to) >>> 1;
+        RecordScan left = new RecordScan(channel, from, middle, live, shadowed, filter, key);
+        left.fork();
+        GroupTable table = new RecordScan(channel, middle, to, live, shadowed, filter, key).compute();
+        table.merge(left.join());
+        return table;
+    }
+
+    private GroupTable scan() {
+        GroupTable table = new GroupTable(key);
+        MappedByteBuffer chunk;
+        try {
+            chunk = channel.map(FileChannel.MapMode.READ_ONLY, from * RecordStore.RECORD_SIZE, (to - from) * RecordStore.RECORD_SIZE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // unwrapped by the database once the scan is joined
+        }
+        int offset = 0;
+        for (long slot = from; slot < to; slot++, offset += RecordStore.RECORD_SIZE) {
+            if (live != null && (live[(int) (slot >>> 6)] & (1L << slot)) == 0) continue; // an older copy
+            if (shadowed != null && Arrays.binarySearch(shadowed, chunk.getLong(offset)) >= 0) continue;
+            if (filter.test(chunk, offset)) table.add(chunk, offset);
+        }
+        return table;
+    }
+}
@@ -0,0 +1,167 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Serves one database, sharded or not, to other processes over TCP on the loopback interface, so every consumer goes through a single
+// process instead of opening the files itself. The protocol is one line of UTF-8 text per request and per response:
+//   GET <id>                                   OK <id>,<last name>,<first name>,<grade>   or   NOT_FOUND <id>
+//   ADD <id>,<last name>,<first name>,<grade>  OK <id>, sent once the record is durable
+//   PING                                       PONG
+// Anything else is answered with ERR and a message. Clients may pipeline: send many requests without waiting for the
+// answers, which come back in request order. Consecutive ADDs that have already arrived on a connection are committed
+// together with one log force, and adds from different connections share forces through the log's group commit.
+class RecordServer implements Closeable {
+    static final int DEFAULT_PORT = 7878;
+    private static final int MAX_BATCH = 256; // Adds of one connection committed with one force
+
+    private final RecordManager database;
+    private final ServerSocket listener;
+    private final ExecutorService connections = connectionThreads();
+    private final Set<Socket> clients = ConcurrentHashMap.newKeySet(); // Open connections, closed with the server
+
+    RecordServer(RecordManager database, int port) throws IOException {
+        this.database = database;
+        this.listener = new ServerSocket(port, 128, InetAddress.getLoopbackAddress()); // Local clients only
+    }
+
+    // Port the server listens on, useful when it was started on port 0
+    int port() {
+        return listener.getLocalPort();
+    }
+
+    // Accepts connections until the server is closed, handling each one on its own thread
+    void serve() throws IOException {
+        while (true) {
+            Socket client;
+            try {
+                client = listener.accept();
+            } catch (SocketException e) {
+                if (listener.isClosed()) return;
+                throw e;
+            }
+            client.setTcpNoDelay(true); // Responses are flushed in batches already, do not delay them further
+            clients.add(client);
+            connections.execute(() -> handle(client));
+        }
+    }
+
+    public void close() throws IOException {
+        listener.close();
+        for (Socket client : clients) {
+            client.close();
+        }
+        connections.shutdown();
+    }
+
+    // Answers the requests of one connection in order until the client disconnects
+    private void handle(Socket client) {
+        try (client;
+             BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8), 1 << 16);
+             Writer out = new BufferedWriter(new OutputStreamWriter(client.getOutputStream(), StandardCharsets.UTF_8), 1 << 16)) {
+            List<StudentRecord> batch = new ArrayList<>();
+            String line = in.readLine();
+            while (line != null) {
+                String next = null; // A request read ahead while collecting a batch
+                StudentRecord record = parseAdd(line);
+                if (record != null) {
+                    batch.add(record);
+                    while (batch.size() < MAX_BATCH && in.ready()) { // Only adds that are already here, never wait for more
+                        next = in.readLine();
+                        StudentRecord more = next == null ? null : parseAdd(next);
+                        if (more == null) break;
+                        batch.add(more);
+                        next = null;
+                    }
+                    commit(batch, out);
+                    batch.clear();
+                } else {
+                    out.write(respond(line));
+                    out.write('\n');
+                }
+                if (next == null) {
+                    if (!in.ready()) out.flush(); // Nothing more pipelined, send the responses so far before waiting
+                    next = in.readLine();
+                }
+                line = next;
+            }
+        } catch (IOException e) {
+            // The client went away or the server is closing, either way the connection is done
+        } finally {
+            clients.remove(client);
+        }
+    }
+
+    // Adds a batch of records with one log force and answers each of them
+    private void commit(List<StudentRecord> batch, Writer out) throws IOException {
+        String failure = null;
+        try {
+            database.insertRecords(batch);
+        } catch (IOException e) {
+            failure = "ERR " + e.getMessage();
+        }
+        for (StudentRecord record : batch) {
+            out.write(failure != null ? failure : "OK " + record.getId());
+            out.write('\n');
+        }
+    }
+
+    // Answers every request except well-formed adds
+    private String respond(String line) {
+        try {
+            if (line.equals("PING")) return "PONG";
+            if (line.startsWith("GET ")) {
+                long id = Long.parseLong(line.substring(4).trim());
+                StudentRecord record = database.getRecord(id);
+                if (record == null) return "NOT_FOUND " + id;
+                return "OK " + record.getId() + "," + record.getLastName() + "," + record.getFirstName() + "," + record.getLetterGrade();
+            }
+            if (line.startsWith("ADD ")) return "ERR Invalid record: " + line.substring(4);
+            return "ERR Unknown command: " + line;
+        } catch (NumberFormatException e) {
+            return "ERR Invalid ID: " + line.substring(4);
+        } catch (IOException e) {
+            return "ERR " + e.getMessage();
+        }
+    }
+
+    // Parses an ADD request like a line of a CSV load, or returns null when the line is not a well-formed add
+    private static StudentRecord parseAdd(String line) {
+        if (!line.startsWith("ADD ")) return null;
+        String[] fields = line.substring(4).split(",");
+        if (fields.length < 4) return null;
+        try {
+            return new StudentRecord(Long.parseLong(fields[0].trim()), fields[1].trim(), fields[2].trim(), fields[3].trim(), -1);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // One thread per connection. Java 21 and later provide virtual threads, which make thousands of mostly idle
+    // connections cheap; older runtimes get ordinary daemon threads, which work the same way at a higher cost per connection.
+    private static ExecutorService connectionThreads() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "record-server-connection");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+}
@@ -0,0 +1,37 @@
+import java.io.Closeable;
+import java.io.IOException;
+
+// Storage for fixed-size 64 byte student records, addressed by their byte offset in the file
+interface RecordStore extends Closeable {
+    int RECORD_SIZE = 64; // Every record takes exactly this many bytes
+
+    // Appends a record to the end of the store and returns its offset
+    long append(byte[] record) throws IOException;
+
+    // Appends the first count records of the array with one write and returns the offset of the first one
+    long appendAll(byte[] records, int count) throws IOException;
+
+    // Writes a record at the given offset, which may be the end of the store, used when replaying the log
+    void write(long offset, byte[] record) throws IOException;
+
+    // Reads the record at the given offset into the array
+    void read(long offset, byte[] record) throws IOException;
+
+    // Reads count consecutive records starting at the given offset into the array with one read
+    void readAll(long offset, byte[] records, int count) throws IOException;
+
+    // Points the view at the record at the given offset and returns it
+    RecordView view(long offset, RecordView view) throws IOException;
+
+    // Number of bytes of records in the store
+    long length();
+
+    // Removes every record from the store
+    void clear() throws IOException;
+
+    // Forces written records to the storage device
+    void force() throws IOException;
+
+    // Bytes of records read and written through this store
+    FileStats stats();
+}
@@ -0,0 +1,49 @@
+import java.nio.ByteBuffer;
+
+// Flyweight over a record stored in a buffer. Fields are decoded only when asked for,
+// and the numeric fields and grade comparison never allocate, so one view can be reused for every lookup.
+public class RecordView {
+    private ByteBuffer buffer; // Buffer holding the record
+    private int position; // Position of the record in the buffer
+    private ByteBuffer scratch; // Private copy for stores that cannot expose their bytes directly
+
+    // Points the view at the record starting at the given position of the buffer
+    RecordView point(ByteBuffer buffer, int position) {
+        this.buffer = buffer;
+        this.position = position;
+        return this;
+    }
+
+    // Buffer the view owns, for stores that copy the record before viewing it
+    ByteBuffer scratch() {
+        if (scratch == null) scratch = ByteBuffer.allocate(RecordStore.RECORD_SIZE);
+        return scratch;
+    }
+
+    public long getId() { return buffer.getLong(position); }
+    public String getLastName() { return field(8, 20); }
+    public String getFirstName() { return field(28, 20); }
+    public String getLetterGrade() { return field(48, 2); }
+    public long getOverflowLink() { return buffer.getLong(position + 50); }
+
+    // Compares the letter grade with the given grade byte by byte, without decoding it
+    public boolean hasLetterGrade(String grade) {
+        int length = grade.length();
+        if (length > 2) return false;
+        for (int i = 0; i < 2; i++) {
+            byte stored = buffer.get(position + 48 + i);
+            if (i < length ? stored != (byte) grade.charAt(i) : stored != 0 && stored != ' ') return false;
+        }
+        return true;
+    }
+
+    // Copies the viewed record into a standalone StudentRecord
+    public StudentRecord toRecord() {
+        return new StudentRecord(getId(), getLastName(), getFirstName(), getLetterGrade(), getOverflowLink());
+    }
+
+    // Decodes a fixed-width text field and trims the padding, like StudentRecord.convertFromBytes
+    private String field(int offset, int size) {
+        return StudentRecord.getText(buffer, position + offset, size);
+    }
+}
@@ -0,0 +1,96 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+
+// Index from a fixed-width text field of the records to the offsets of the records holding it.
+// It reuses the long-keyed BPlusTree with a composite key: the high 32 bits are a hash of the field and the low
+// 32 bits the record's slot number (offset / 64). Keys are therefore unique even when many records share a value,
+// and all records with one value sit next to each other in ascending file order.
+// Entries are never removed. A lookup reads every candidate and drops records whose field only collides on the hash,
+// or which were replaced by a later copy of their id; the caller checks the latter against the primary index.
+class SecondaryIndex {
+    private static final long MAX_SLOT = 0xFFFFFFFFL; // Highest slot number that fits in the low half of a key
+
+    private final BPlusTree tree;
+    private final int fieldOffset; // Position of the field in the 64 byte record
+    private final int fieldSize; // Width of the field in bytes
+
+    SecondaryIndex(BPlusTree tree, int fieldOffset, int fieldSize) {
+        this.tree = tree;
+        this.fieldOffset = fieldOffset;
+        this.fieldSize = fieldSize;
+    }
+
+    // Opens the index stored in the given file, or creates an empty one
+    static SecondaryIndex open(File file, int fieldOffset, int fieldSize) throws IOException {
+        return new SecondaryIndex(new BPlusTree(file), fieldOffset, fieldSize);
+    }
+
+    // The tree holding the composite keys, for bulk loads, flushes and closing
+    BPlusTree tree() {
+        return tree;
+    }
+
+    // Composite key of the record at the given position of the array, which is stored at the given offset
+    long key(byte[] records, int position, long offset) {
+        long slot = offset / RecordStore.RECORD_SIZE;
+        if (slot > MAX_SLOT) throw new IllegalStateException("Record offset " + offset + " is too large for a secondary index");
+        int start = position + fieldOffset;
+        int end = start + fieldSize;
+        return (long) hash(records, trimStart(records, start, end), trimEnd(records, start, end)) << 32 | slot;
+    }
+
+    // Indexes one record stored at the given offset
+    void insert(byte[] record, long offset) throws IOException {
+        tree.insert(key(record, 0, offset), offset);
+    }
+
+    // Encodes a value the way a record stores it: UTF-8, trimmed and cut to the field width
+    byte[] encode(String value) {
+        byte[] bytes = value.trim().getBytes(StandardCharsets.UTF_8);
+        int end = trimEnd(bytes, 0, Math.min(bytes.length, fieldSize));
+        byte[] encoded = new byte[end];
+        System.arraycopy(bytes, 0, encoded, 0, end);
+        return encoded;
+    }
+
+    // Offsets of the records that may hold the encoded value, in ascending order
+    Iterator<BPlusTree.Entry> candidates(byte[] value) throws IOException {
+        long hash = (long) hash(value, 0, value.length) << 32;
+        return tree.scan(hash, hash | MAX_SLOT);
+    }
+
+    // Whether the record's field holds exactly the encoded value, ignoring padding
+    boolean matches(byte[] record, byte[] value) {
+        int start = trimStart(record, fieldOffset, fieldOffset + fieldSize);
+        int end = trimEnd(record, start, fieldOffset + fieldSize);
+        if (end - start != value.length) return false;
+        for (int i = 0; i < value.length; i++) {
+            if (record[start + i] != value[i]) return false;
+        }
+        return true;
+    }
+
+    // FNV-1a hash of a byte range
+    private static int hash(byte[] bytes, int start, int end) {
+        int hash = 0x811C9DC5;
+        for (int i = start; i < end; i++) {
+            hash ^= bytes[i] & 0xFF;
+            hash *= 0x01000193;
+        }
+        return hash;
+    }
+
+    // Skips the zero padding and whitespace at the start of a field, like String.trim does after decoding
+    private static int trimStart(byte[] bytes, int start, int end) {
+        while (start < end && (bytes[start] & 0xFF) <= ' ') start++;
+        return start;
+    }
+
+    // Drops the zero padding and whitespace at the end of a field
+    private static int trimEnd(byte[] bytes, int start, int end) {
+        while (end > start && (bytes[end - 1] & 0xFF) <= ' ') end--;
+        return end;
+    }
+}
@@ -0,0 +1,453 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// A database split by a hash of the record id into shards that are complete, independent databases: shard i keeps
+// its own <base>.shard<i>.db, .overflow, .index, log and lock, and the number of shards is fixed in a <base>.shards
+// file when the database is created. Adds and lookups go straight to the shard that owns the id. Loads parse the file
+// once and feed every shard its records, and loads, merges, recovery on open and close run on all shards in parallel,
+// so they scale with cores and disks instead of queueing on one set of files.
+public class ShardedDatabase implements RecordManager {
+    private static final int MAGIC = 0x53484431; // Marks a shard count file ("SHD1")
+    private static final int QUEUED_BATCHES = 4; // parsed batches waiting for each shard during a load
+    private static final CsvLoader.Batch END = new CsvLoader.Batch(1); // marks the end of a shard's part of a load
+
+    private final String baseFilename;
+    private final Database[] shards;
+    // threads for loads, merges, opening and closing. Never a fixed number: a shard's load task waits for batches
+    // while holding its shard, so it must not queue behind tasks that are waiting for that shard.
+    private final ExecutorService workers;
+
+    // Opens the sharded database with the given base name, creating it with the given number of shards when it does
+    // not exist yet. A count of 0 opens an existing database with the number of shards it was created with. A name
+    // that already holds a database that is not sharded is refused.
+    public ShardedDatabase(String filename, int shardCount, boolean memoryMapped) throws IOException {
+        this.baseFilename = filename;
+        int count = readShardCount(filename);
+        if (count == 0) {
+            if (shardCount <= 0) throw new IOException("Database " + filename + " is not sharded, give the number of shards to create");
+            if (new File(filename + ".db").length() > 0) { // sharding it would hide its records behind empty shards
+                throw new IOException("Database " + filename + " already holds records that are not sharded, use a new name for the sharded database");
+            }
+            writeShardCount(filename, shardCount);
+            count = shardCount;
+        } else if (shardCount > 0 && shardCount != count) {
+            throw new IOException("Database " + filename + " has " + count + " shards, not " + shardCount);
+        }
+        this.shards = new Database[count];
+        this.workers = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "shard-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        List<Callable<Void>> opens = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            int shard = i;
+            opens.add(() -> {
+                shards[shard] = new Database(shardName(filename, shard), memoryMapped);
+                return null;
+            });
+        }
+        try {
+            runAll(opens); // shards that need recovery rebuild their indexes at the same time
+        } catch (IOException | RuntimeException e) {
+            for (Database shard : shards) {
+                if (shard != null) shard.close(); // a database that failed to open must not leave shards locked
+            }
+            workers.shutdown();
+            throw e;
+        }
+    }
+
+    // Whether a sharded database with the given base name exists
+    public static boolean exists(String filename) {
+        return new File(filename + ".shards").isFile();
+    }
+
+    // Base name of the files of one shard
+    static String shardName(String filename, int shard) {
+        return filename + ".shard" + shard;
+    }
+
+    public int shardCount() {
+        return shards.length;
+    }
+
+    // Shard owning an id. Multiplying by the golden ratio spreads runs of sequential ids evenly over the shards.
+    int shardOf(long id) {
+        return (int) ((((id * 0x9E3779B97F4A7C15L) >>> 32) * shards.length) >>> 32);
+    }
+
+    private Database shard(long id) {
+        return shards[shardOf(id)];
+    }
+
+    public void insertRecord(StudentRecord record) throws IOException {
+        shard(record.getId()).insertRecord(record);
+    }
+
+    // Adds a batch with one log force per shard it touches, the shards forcing their logs at the same time
+    public void insertRecords(List<StudentRecord> batch) throws IOException {
+        List<List<StudentRecord>> parts = new ArrayList<>();
+        for (int i = 0; i < shards.length; i++) {
+            parts.add(new ArrayList<>());
+        }
+        for (StudentRecord record : batch) {
+            parts.get(shardOf(record.getId())).add(record);
+        }
+        List<Callable<Void>> inserts = new ArrayList<>();
+        for (int i = 0; i < shards.length; i++) {
+            Database shard = shards[i];
+            List<StudentRecord> part = parts.get(i);
+            if (!part.isEmpty()) {
+                inserts.add(() -> {
+                    shard.insertRecords(part);
+                    return null;
+                });
+            }
+        }
+        if (inserts.size() == 1) {
+            call(inserts.get(0)); // no need for another thread
+        } else {
+            runAll(inserts);
+        }
+    }
+
+    public void showRecord(long id) throws IOException {
+        shard(id).showRecord(id);
+    }
+
+    public RecordView viewRecord(long id, RecordView view) throws IOException {
+        return shard(id).viewRecord(id, view);
+    }
+
+    public StudentRecord getRecord(long id) throws IOException {
+        return shard(id).getRecord(id);
+    }
+
+    // Multi-get: every shard resolves its share of the ids with one sorted pass over its own index
+    public StudentRecord[] getRecords(long[] ids) throws IOException {
+        StudentRecord[] found = new StudentRecord[ids.length];
+        int[][] positions = partition(ids);
+        for (int s = 0; s < shards.length; s++) {
+            int[] mine = positions[s];
+            if (mine.length == 0) continue;
+            long[] shardIds = new long[mine.length];
+            for (int i = 0; i < mine.length; i++) {
+                shardIds[i] = ids[mine[i]];
+            }
+            StudentRecord[] shardFound = shards[s].getRecords(shardIds);
+            for (int i = 0; i < mine.length; i++) {
+                found[mine[i]] = shardFound[i];
+            }
+        }
+        return found;
+    }
+
+    // Multi-get into reusable holders, see Database.getRecords
+    public int getRecords(long[] ids, MutableStudentRecord[] into) throws IOException {
+        int count = 0;
+        int[][] positions = partition(ids);
+        for (int s = 0; s < shards.length; s++) {
+            int[] mine = positions[s];
+            if (mine.length == 0) continue;
+            long[] shardIds = new long[mine.length];
+            MutableStudentRecord[] shardInto = new MutableStudentRecord[mine.length];
+            for (int i = 0; i < mine.length; i++) {
+                shardIds[i] = ids[mine[i]];
+                shardInto[i] = into[mine[i]]; // the shard fills the caller's holders directly
+            }
+            count += shards[s].getRecords(shardIds, shardInto);
+        }
+        return count;
+    }
+
+    // Positions in ids of the ids owned by every shard
+    private int[][] partition(long[] ids) {
+        int[] counts = new int[shards.length];
+        for (long id : ids) {
+            counts[shardOf(id)]++;
+        }
+        int[][] positions = new int[shards.length][];
+        for (int s = 0; s < shards.length; s++) {
+            positions[s] = new int[counts[s]];
+            counts[s] = 0;
+        }
+        for (int i = 0; i < ids.length; i++) {
+            int s = shardOf(ids[i]);
+            positions[s][counts[s]++] = i;
+        }
+        return positions;
+    }
+
+    // A range holds ids of every shard, so all of them are scanned and the results put back in ID order
+    public List<StudentRecord> scanRecords(long from, long to) throws IOException {
+        List<StudentRecord> found = new ArrayList<>();
+        for (Database shard : shards) {
+            found.addAll(shard.scanRecords(from, to));
+        }
+        found.sort((a, b) -> Long.compare(a.getId(), b.getId()));
+        return found;
+    }
+
+    public List<StudentRecord> findByLastName(String lastName) throws IOException {
+        List<StudentRecord> found = new ArrayList<>();
+        for (Database shard : shards) {
+            found.addAll(shard.findByLastName(lastName));
+        }
+        found.sort((a, b) -> Long.compare(a.getId(), b.getId()));
+        return found;
+    }
+
+    public List<StudentRecord> findByGrade(String letterGrade) throws IOException {
+        List<StudentRecord> found = new ArrayList<>();
+        for (Database shard : shards) {
+            found.addAll(shard.findByGrade(letterGrade));
+        }
+        found.sort((a, b) -> Long.compare(a.getId(), b.getId()));
+        return found;
+    }
+
+    // Every shard scans its own files on the fork-join pool in turn, and their group tables are merged before decoding
+    public Map<String, Aggregate> aggregate(RecordFilter filter, RecordField groupBy, int length) throws IOException {
+        FieldKey key = groupBy == null ? null : new FieldKey(groupBy, length);
+        GroupTable table = new GroupTable(key);
+        for (Database shard : shards) {
+            table.merge(shard.aggregateTable(filter, key));
+        }
+        return table.groups();
+    }
+
+    // Parses the CSV file once on this thread and its parser pool, splitting every parsed batch by shard. Each shard
+    // loads from its own bounded queue on its own thread, so appending, sorting and indexing run on all shards at once.
+    public void loadRecords(String filename) throws IOException {
+        File file = new File(filename);
+        if (!file.isFile()) {
+            System.out.println("File not found: " + filename);
+            return;
+        }
+        List<BlockingQueue<CsvLoader.Batch>> queues = new ArrayList<>();
+        List<Future<Void>> loads = new ArrayList<>();
+        for (Database shard : shards) {
+            BlockingQueue<CsvLoader.Batch> queue = new ArrayBlockingQueue<>(QUEUED_BATCHES);
+            queues.add(queue);
+            loads.add(workers.submit(() -> {
+                load(shard, queue);
+                return null;
+            }));
+        }
+        long[] loaded = new long[1];
+        try {
+            new CsvLoader(Runtime.getRuntime().availableProcessors()).load(file, batch -> {
+                for (String line : batch.skipped) {
+                    System.out.println("Skipping invalid record: " + line);
+                }
+                CsvLoader.Batch[] parts = split(batch);
+                for (int s = 0; s < parts.length; s++) {
+                    if (parts[s] != null) put(queues.get(s), parts[s]);
+                }
+                long before = loaded[0];
+                loaded[0] += batch.count;
+                if (loaded[0] / Database.LOAD_PROGRESS_INTERVAL > before / Database.LOAD_PROGRESS_INTERVAL) {
+                    System.out.println(loaded[0] + " records read...");
+                }
+            });
+        } catch (Exception e) {
+            System.out.println("Error reading file: " + e.getMessage()); // the shards still index what they were given
+        } finally {
+            for (BlockingQueue<CsvLoader.Batch> queue : queues) {
+                put(queue, END);
+            }
+        }
+        awaitAll(loads);
+        if (loaded[0] > 0) System.out.println(loaded[0] + " records loaded.");
+    }
+
+    // Loads the batches queued for one shard. The queue is drained up to the end marker even when the load fails,
+    // so the parsing thread never waits on a shard that stopped taking batches.
+    private static void load(Database shard, BlockingQueue<CsvLoader.Batch> queue) throws IOException {
+        boolean[] ended = new boolean[1];
+        try {
+            shard.loadBatches(sink -> {
+                for (CsvLoader.Batch batch = take(queue); batch != END; batch = take(queue)) {
+                    sink.accept(batch);
+                }
+                ended[0] = true;
+            });
+        } finally {
+            while (!ended[0]) {
+                ended[0] = take(queue) == END;
+            }
+        }
+    }
+
+    // Splits a parsed batch into one batch per shard, null for shards that own none of its records
+    private CsvLoader.Batch[] split(CsvLoader.Batch batch) {
+        int[] owners = new int[batch.count];
+        int[] counts = new int[shards.length];
+        for (int i = 0; i < batch.count; i++) {
+            owners[i] = shardOf(batch.ids[i]);
+            counts[owners[i]]++;
+        }
+        CsvLoader.Batch[] parts = new CsvLoader.Batch[shards.length];
+        for (int s = 0; s < shards.length; s++) {
+            if (counts[s] > 0) parts[s] = new CsvLoader.Batch(counts[s]);
+        }
+        for (int i = 0; i < batch.count; i++) {
+            CsvLoader.Batch part = parts[owners[i]];
+            int slot = part.count++;
+            part.ids[slot] = batch.ids[i];
+            System.arraycopy(batch.records, i * RecordStore.RECORD_SIZE, part.records, slot * RecordStore.RECORD_SIZE, RecordStore.RECORD_SIZE);
+        }
+        return parts;
+    }
+
+    public void mergeRecords() throws IOException {
+        compactRecords();
+        System.out.println("Merge completed.");
+    }
+
+    // Merges every shard at the same time; each one rewrites only its own files
+    public void compactRecords() throws IOException {
+        List<Callable<Void>> merges = new ArrayList<>();
+        for (Database shard : shards) {
+            merges.add(() -> {
+                shard.compactRecords();
+                return null;
+            });
+        }
+        runAll(merges);
+    }
+
+    public void setFillFactor(double fillFactor) {
+        for (Database shard : shards) {
+            shard.setFillFactor(fillFactor);
+        }
+    }
+
+    public void setFalsePositiveRate(double falsePositiveRate) throws IOException {
+        for (Database shard : shards) {
+            shard.setFalsePositiveRate(falsePositiveRate);
+        }
+    }
+
+    public void showStats() throws IOException {
+        for (int i = 0; i < shards.length; i++) {
+            System.out.println("Shard " + i + " (" + shardName(baseFilename, i) + "):");
+            shards[i].showStats();
+        }
+    }
+
+    public void close() throws IOException {
+        List<Callable<Void>> closes = new ArrayList<>();
+        for (Database shard : shards) {
+            closes.add(() -> {
+                shard.close();
+                return null;
+            });
+        }
+        try {
+            runAll(closes); // every shard checkpoints its own files
+        } finally {
+            workers.shutdown();
+        }
+    }
+
+    // Runs the tasks on the worker threads and waits for all of them
+    private void runAll(List<Callable<Void>> tasks) throws IOException {
+        List<Future<Void>> futures = new ArrayList<>();
+        for (Callable<Void> task : tasks) {
+            futures.add(workers.submit(task));
+        }
+        awaitAll(futures);
+    }
+
+    // Waits for every task, even after one failed, then rethrows the first failure
+    private static void awaitAll(List<Future<Void>> futures) throws IOException {
+        Throwable failure = null;
+        boolean interrupted = false;
+        for (Future<Void> future : futures) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true; // the shards are still working on their files, keep waiting for them
+                } catch (ExecutionException e) {
+                    if (failure == null) failure = e.getCause();
+                    break;
+                }
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        if (failure instanceof IOException) throw (IOException) failure;
+        if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+        if (failure instanceof Error) throw (Error) failure;
+        if (failure != null) throw new IOException(failure);
+    }
+
+    // Runs a task on the calling thread
+    private static void call(Callable<Void> task) throws IOException {
+        try {
+            task.call();
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static CsvLoader.Batch take(BlockingQueue<CsvLoader.Batch> queue) throws IOException {
+        try {
+            return queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading", e);
+        }
+    }
+
+    private static void put(BlockingQueue<CsvLoader.Batch> queue, CsvLoader.Batch batch) throws IOException {
+        try {
+            queue.put(batch);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading", e);
+        }
+    }
+
+    // Number of shards recorded for the base name, 0 when the database is not sharded
+    private static int readShardCount(String filename) throws IOException {
+        File file = new File(filename + ".shards");
+        if (!file.isFile()) return 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            int count = in.readInt() == MAGIC ? in.readInt() : 0;
+            if (count <= 0) throw new IOException(file + " is not a shard count file");
+            return count;
+        }
+    }
+
+    // Records the number of shards before any shard is created, so the ids are never routed with a different count
+    private static void writeShardCount(String filename, int count) throws IOException {
+        try (FileOutputStream file = new FileOutputStream(filename + ".shards");
+             DataOutputStream out = new DataOutputStream(file)) {
+            out.writeInt(MAGIC);
+            out.writeInt(count);
+            out.flush();
+            file.getChannel().force(false);
+        }
+    }
+}
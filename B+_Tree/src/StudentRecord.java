@@ -1,4 +1,5 @@
 import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 
 public class StudentRecord {
@@ -19,32 +20,71 @@ public class StudentRecord {
     }
     // Converts the student record into a byte array for storage or transmission
     public byte[] convertIntoBytes() {
-        ByteBuffer buffer = ByteBuffer.allocate(64); // Allocate a buffer of 64 bytes
-        buffer.putLong(id); // Store the ID as a long (8 bytes)
-        buffer.put(fixedSize(lastName, 20)); // Store the last name in a fixed size of 20 bytes
-        buffer.put(fixedSize(firstName, 20)); // Store the first name in a fixed size of 20 bytes
-        buffer.put(fixedSize(letterGrade, 2)); // Store the letter grade in a fixed size of 2 bytes
-        buffer.putLong(overflowLink); // Store the overflow link as a long (8 bytes)
-        return buffer.array(); // Return the underlying byte array
+        byte[] bytes = new byte[64]; // The 64 byte form of the record
+        encode(ByteBuffer.wrap(bytes), 0);
+        return bytes;
+    }
+
+    // Writes the record in its 64 byte form at the given position of the buffer, without allocating when the names are ASCII
+    public void encode(ByteBuffer buffer, int offset) {
+        buffer.putLong(offset, id); // Store the ID as a long (8 bytes)
+        putText(buffer, offset + 8, lastName, 20); // Store the last name in a fixed size of 20 bytes
+        putText(buffer, offset + 28, firstName, 20); // Store the first name in a fixed size of 20 bytes
+        putText(buffer, offset + 48, letterGrade, 2); // Store the letter grade in a fixed size of 2 bytes
+        buffer.putLong(offset + 50, overflowLink); // Store the overflow link as a long (8 bytes)
+        buffer.putInt(offset + 58, 0).putShort(offset + 62, (short) 0); // Clear the unused tail of the slot
     }
 
     // Constructs a student record from a byte array
     public static StudentRecord convertFromBytes(byte[] bytes) {
-        ByteBuffer buffer = ByteBuffer.wrap(bytes); // Wrap the byte array into a ByteBuffer
-        long id = buffer.getLong(); // Read the ID from the buffer
-        String lastName = new String(bytes, 8, 20, StandardCharsets.UTF_8).trim(); // Extract and trim the last name
-        String firstName = new String(bytes, 28, 20, StandardCharsets.UTF_8).trim(); // Extract and trim the first name
-        String letterGrade = new String(bytes, 48, 2, StandardCharsets.UTF_8).trim(); // Extract and trim the letter grade
-        long overflowLink = buffer.getLong(56); // Read the overflow link from the buffer
+        return decode(ByteBuffer.wrap(bytes), 0);
+    }
+
+    // Constructs a student record from the 64 bytes at the given position of the buffer
+    public static StudentRecord decode(ByteBuffer buffer, int offset) {
+        long id = buffer.getLong(offset); // Read the ID from the buffer
+        String lastName = getText(buffer, offset + 8, 20); // Extract and trim the last name
+        String firstName = getText(buffer, offset + 28, 20); // Extract and trim the first name
+        String letterGrade = getText(buffer, offset + 48, 2); // Extract and trim the letter grade
+        long overflowLink = buffer.getLong(offset + 50); // Read the overflow link from where it was written
         return new StudentRecord(id, lastName, firstName, letterGrade, overflowLink); // Create a new StudentRecord object
     }
 
-    // Helper method to ensure strings are saved in fixed byte lengths
-    private byte[] fixedSize(String string, int size) {
-        byte[] stringBytes = new byte[size]; // Create a byte array of the specified size
-        byte[] rawStringBytes = string.getBytes(StandardCharsets.UTF_8); // Convert the string to bytes
-        System.arraycopy(rawStringBytes, 0, stringBytes, 0, Math.min(rawStringBytes.length, size)); // Copy to the fixed size array, truncating if necessary
-        return stringBytes;
+    // Writes text into a zero-padded field of the given size, truncating its UTF-8 bytes like the fixed-size encoding always did.
+    // ASCII characters are their own UTF-8 bytes, so they are copied directly; other text is encoded the slow way.
+    static void putText(ByteBuffer buffer, int offset, CharSequence text, int size) {
+        int length = Math.min(text.length(), size);
+        int i = 0;
+        while (i < length && text.charAt(i) < 0x80) {
+            buffer.put(offset + i, (byte) text.charAt(i));
+            i++;
+        }
+        if (i < length) { // Not ASCII
+            byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+            i = Math.min(bytes.length, size);
+            buffer.put(offset, bytes, 0, i);
+        }
+        for (; i < size; i++) {
+            buffer.put(offset + i, (byte) 0);
+        }
+    }
+
+    // Decodes a fixed-size text field and trims the padding. Trimming the bytes first gives the same result as
+    // String.trim after decoding, since UTF-8 never uses bytes up to a space inside a multi-byte character.
+    static String getText(ByteBuffer buffer, int offset, int size) {
+        int start = offset;
+        int end = offset + size;
+        while (start < end && (buffer.get(start) & 0xFF) <= ' ') start++;
+        while (end > start && (buffer.get(end - 1) & 0xFF) <= ' ') end--;
+        boolean ascii = true;
+        for (int i = start; i < end && ascii; i++) {
+            ascii = buffer.get(i) >= 0;
+        }
+        Charset charset = ascii ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8; // ASCII is copied without decoding
+        if (buffer.hasArray()) return new String(buffer.array(), buffer.arrayOffset() + start, end - start, charset);
+        byte[] bytes = new byte[end - start]; // Direct and mapped buffers have to be copied out first
+        buffer.get(start, bytes);
+        return new String(bytes, charset);
     }
 
     // Getter methods to access the student record details
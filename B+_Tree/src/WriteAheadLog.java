@@ -0,0 +1,176 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32C;
+
+// Log of appended records that is forced to disk before an add is acknowledged.
+// Every entry holds the record's offset in the .db file, the 64 record bytes and a CRC32C checksum of both.
+// Callers that commit at the same time share one force: the first one writes and forces everything logged so far
+// while the others wait for it, which is what keeps durable inserts fast.
+class WriteAheadLog implements Closeable {
+    static final int ENTRY_SIZE = 8 + RecordStore.RECORD_SIZE + 4; // offset, record, checksum
+
+    private final RandomAccessFile file; // The .wal file
+    private final FileChannel channel;
+    private ByteBuffer pending = ByteBuffer.allocate(ENTRY_SIZE * 256); // Entries appended but not yet written
+    private ByteBuffer writing = ByteBuffer.allocate(ENTRY_SIZE * 256); // Entries being written by the current leader
+    private final CRC32C checksum = new CRC32C();
+    private long appended; // Log position after the last appended entry, positions keep growing across truncations
+    private long durable; // Log position covered by the last completed force
+    private long base; // Log position of the start of the file, moved forward by every truncation
+    private boolean syncing; // Whether a caller is currently writing and forcing the log
+    private IOException failure; // Error of the last failed force, reported to every caller that was waiting on it
+    private final FileStats stats = new FileStats();
+
+    WriteAheadLog(File file) throws IOException {
+        this.file = new RandomAccessFile(file, "rw");
+        this.channel = this.file.getChannel();
+        this.appended = validLength();
+        this.durable = appended;
+        this.file.setLength(appended); // Cut off a torn entry at the end
+    }
+
+    // Calls the handler with every intact entry in log order and returns how many there were
+    synchronized int replay(EntryHandler handler) throws IOException {
+        ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+        byte[] record = new byte[RecordStore.RECORD_SIZE];
+        int count = 0;
+        for (long position = 0; position + ENTRY_SIZE <= durable - base; position += ENTRY_SIZE) {
+            readEntry(position, entry);
+            entry.position(8);
+            entry.get(record);
+            handler.apply(entry.getLong(0), record);
+            count++;
+        }
+        return count;
+    }
+
+    // Adds an entry to the log buffer and returns the log position to commit up to
+    synchronized long append(long offset, byte[] record) {
+        if (pending.remaining() < ENTRY_SIZE) {
+            ByteBuffer larger = ByteBuffer.allocate(pending.capacity() * 2);
+            pending.flip();
+            larger.put(pending);
+            pending = larger;
+        }
+        int start = pending.position();
+        pending.putLong(offset);
+        pending.put(record, 0, RecordStore.RECORD_SIZE);
+        checksum.reset();
+        checksum.update(pending.array(), start, 8 + RecordStore.RECORD_SIZE);
+        pending.putInt((int) checksum.getValue());
+        appended += ENTRY_SIZE;
+        return appended;
+    }
+
+    // Blocks until the log is durable up to the given position, forcing it unless another caller is already doing so
+    void commit(long position) throws IOException {
+        ByteBuffer batch;
+        long target;
+        synchronized (this) {
+            while (durable < position) {
+                if (!syncing) break;
+                try {
+                    wait(); // Another caller is forcing, its force may cover this position as well
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for the log to be forced", e);
+                }
+                if (failure != null && durable < position) throw failure;
+            }
+            if (durable >= position) return;
+            // Become the leader: take everything appended so far and write it outside the lock
+            syncing = true;
+            failure = null;
+            batch = pending;
+            pending = writing;
+            pending.clear();
+            writing = batch;
+            target = appended;
+        }
+        IOException error = null;
+        try {
+            batch.flip();
+            int size = batch.remaining();
+            long at = target - batch.remaining() - base; // No truncation can run while a leader is writing
+            while (batch.hasRemaining()) {
+                at += channel.write(batch, at);
+            }
+            channel.force(false);
+            stats.written(size);
+        } catch (IOException e) {
+            error = e;
+        }
+        synchronized (this) {
+            syncing = false;
+            if (error == null) durable = target;
+            else failure = error;
+            notifyAll();
+        }
+        if (error != null) throw error;
+    }
+
+    // Number of bytes in the log, including entries not yet forced
+    synchronized long size() {
+        return appended - base;
+    }
+
+    // Empties the log once everything it covers has been forced to the data files.
+    // Entries still waiting for a commit count as durable afterwards, since the data files now hold them.
+    synchronized void truncate() throws IOException {
+        while (syncing) {
+            try {
+                wait(); // Let the current leader finish writing first
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for a log commit", e);
+            }
+        }
+        pending.clear();
+        file.setLength(0);
+        channel.force(false);
+        base = appended;
+        durable = appended;
+        notifyAll();
+    }
+
+    // Bytes read from and written to the log file
+    FileStats stats() {
+        return stats;
+    }
+
+    public void close() throws IOException {
+        file.close();
+    }
+
+    // Finds the end of the last intact entry, a torn or corrupt entry ends the log
+    private long validLength() throws IOException {
+        ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+        long position = 0;
+        long length = file.length();
+        while (position + ENTRY_SIZE <= length) {
+            readEntry(position, entry);
+            checksum.reset();
+            checksum.update(entry.array(), 0, 8 + RecordStore.RECORD_SIZE);
+            if ((int) checksum.getValue() != entry.getInt(8 + RecordStore.RECORD_SIZE)) break;
+            position += ENTRY_SIZE;
+        }
+        return position;
+    }
+
+    private void readEntry(long position, ByteBuffer entry) throws IOException {
+        entry.clear();
+        while (entry.hasRemaining()) {
+            if (channel.read(entry, position + entry.position()) < 0) throw new IOException("Unexpected end of the log");
+        }
+        stats.read(ENTRY_SIZE);
+    }
+
+    // Receives replayed entries
+    interface EntryHandler {
+        void apply(long offset, byte[] record) throws IOException;
+    }
+}
@@ -0,0 +1,80 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Path;
+import java.util.Iterator;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BPlusTreeTest {
+    @TempDir
+    Path directory;
+
+    // Every 997th key comes twice, its second value far from its neighbours' values. The replaced value must not
+    // count towards the packed width of the leaf, or the leaf is sized for entries that no longer fit the page.
+    @Test
+    void bulkLoadKeepsTheLastOfScatteredDuplicateKeys() throws IOException {
+        int keys = 200_000;
+        BPlusTree tree = new BPlusTree(directory.resolve("tree.index").toFile());
+        try {
+            tree.bulkLoad(new BPlusTree.EntrySource() {
+                int key = -1;
+                boolean repeat;
+
+                public boolean next() {
+                    if (!repeat && key >= 0 && key % 997 == 0) {
+                        repeat = true;
+                    } else {
+                        repeat = false;
+                        key++;
+                    }
+                    return key < keys;
+                }
+
+                public long key() { return key; }
+                public long value() { return repeat ? (keys + key) * 64L : key * 64L; }
+            }, 1.0);
+
+            assertEquals(keys, tree.size());
+            for (int key = 0; key < keys; key++) {
+                long expected = key % 997 == 0 ? (keys + key) * 64L : key * 64L;
+                assertEquals(expected, tree.search(key), "value of key " + key);
+            }
+            Iterator<BPlusTree.Entry> scan = tree.scan(Long.MIN_VALUE, Long.MAX_VALUE);
+            for (int key = 0; key < keys; key++) {
+                assertEquals(key, scan.next().key);
+            }
+            assertFalse(scan.hasNext());
+        } finally {
+            tree.close();
+        }
+    }
+
+    // A file that repeats some ids after the rest is bulk loaded into the index in one batch with the duplicates
+    @Test
+    void databaseReopensAfterLoadingIdsAgain() throws IOException {
+        File csv = directory.resolve("students.csv").toFile();
+        try (PrintWriter out = new PrintWriter(csv)) {
+            for (int id = 1; id <= 200_000; id++) out.println(id + ",Last" + id + ",First,A");
+            for (int id = 850; id <= 999; id++) out.println(id + ",Again" + id + ",First,B");
+        }
+        String name = directory.resolve("students").toString();
+        Database database = new Database(name);
+        database.loadRecords(csv.getPath());
+        database.close();
+
+        database = new Database(name);
+        try {
+            assertEquals("Last849", database.getRecord(849).getLastName());
+            assertEquals("Again850", database.getRecord(850).getLastName());
+            assertEquals("Again999", database.getRecord(999).getLastName());
+            assertEquals("Last200000", database.getRecord(200_000).getLastName());
+        } finally {
+            database.close();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BloomFilterTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void savedFilterLoadsWithTheSameBitsAndSettings() throws IOException {
+        BloomFilter filter = BloomFilter.create(100_000, 0.001);
+        for (long key = 0; key < 300_000; key += 3) filter.add(key);
+        File file = directory.resolve("students.bloom").toFile();
+        filter.save(file, 1234, new FileStats());
+
+        BloomFilter loaded = BloomFilter.load(file, new FileStats());
+        assertNotNull(loaded);
+        assertEquals(0.001, loaded.falsePositiveRate());
+        assertEquals(1234, loaded.indexedKeys());
+        assertEquals(filter.sizeInBytes(), loaded.sizeInBytes());
+        for (long key = 0; key < 600_000; key++) {
+            assertEquals(filter.mightContain(key), loaded.mightContain(key), "key " + key);
+        }
+        assertEquals(filter.isFull(), loaded.isFull());
+    }
+
+    // The filter only holds derived data, so a file that cannot be read whole is ignored rather than trusted
+    @Test
+    void tornOrForeignFilesLoadAsNull() throws IOException {
+        File file = directory.resolve("students.bloom").toFile();
+        assertNull(BloomFilter.load(file, new FileStats()));
+
+        BloomFilter.create(1000, 0.01).save(file, 0, new FileStats());
+        try (RandomAccessFile raw = new RandomAccessFile(file, "rw")) {
+            raw.setLength(raw.length() - 8);
+        }
+        assertNull(BloomFilter.load(file, new FileStats()));
+
+        BloomFilter.create(1000, 0.01).save(file, 0, new FileStats());
+        try (RandomAccessFile raw = new RandomAccessFile(file, "rw")) {
+            raw.writeInt(0); // not the magic number
+        }
+        assertNull(BloomFilter.load(file, new FileStats()));
+    }
+
+    @Test
+    void keysAddedPastCapacityAreStillFound() {
+        BloomFilter filter = BloomFilter.create(0, 0.01);
+        long key = 0;
+        while (!filter.isFull()) filter.add(key++);
+        for (long added = 0; added < key; added++) {
+            assertTrue(filter.mightContain(added), "key " + added);
+        }
+    }
+
+    // A filter saved at an older checkpoint misses the ids added since, so it must be rebuilt from the index
+    // instead of being used to rule those ids out
+    @Test
+    void filterSavedWithAnotherIndexSizeIsRebuilt() throws IOException {
+        String name = directory.resolve("students").toString();
+        Path bloom = directory.resolve("students.bloom");
+        Path old = directory.resolve("old.bloom");
+        Database database = new Database(name);
+        try {
+            for (long id = 0; id < 100; id++) database.insertRecord(new StudentRecord(id, "Last" + id, "First", "A", -1));
+        } finally {
+            database.close();
+        }
+        Files.copy(bloom, old);
+
+        database = new Database(name);
+        try {
+            for (long id = 1000; id < 3000; id++) database.insertRecord(new StudentRecord(id, "Last" + id, "First", "A", -1));
+        } finally {
+            database.close();
+        }
+        Files.move(old, bloom, StandardCopyOption.REPLACE_EXISTING);
+
+        database = new Database(name);
+        try {
+            for (long id = 1000; id < 3000; id++) {
+                assertNotNull(database.getRecord(id), "id " + id);
+            }
+            assertEquals(2999, database.getRecords(new long[] { 0, 2999 })[1].getId());
+        } finally {
+            database.close();
+        }
+        assertEquals(2100, BloomFilter.load(bloom.toFile(), new FileStats()).indexedKeys());
+    }
+}
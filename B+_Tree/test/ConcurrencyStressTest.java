@@ -0,0 +1,274 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+// Mixed adds and lookups from several threads at once. Every writer publishes how many of its ids were acknowledged,
+// and readers check that each acknowledged id is found while the writers keep adding and splitting nodes. Afterwards
+// the files are reopened and every added id must still be there.
+class ConcurrencyStressTest {
+    private static final int WRITERS = 4;
+    private static final int READERS = 4;
+    private static final long WRITER_IDS = 1_000_000_000L; // Writer w adds ids from (w + 1) * WRITER_IDS upwards
+
+    @TempDir
+    Path directory;
+
+    @ParameterizedTest(name = "memoryMapped={0}")
+    @ValueSource(booleans = {false, true})
+    void databaseFindsEveryAcknowledgedAdd(boolean memoryMapped) throws Exception {
+        int preloaded = 20_000;
+        int perWriter = 1_000;
+        File csv = directory.resolve("students.csv").toFile();
+        try (PrintWriter out = new PrintWriter(csv)) {
+            for (int id = 0; id < preloaded; id++) out.println(id + ",Loaded" + id + ",First,A");
+        }
+        String name = directory.resolve("students").toString();
+        Database database = new Database(name, memoryMapped);
+        database.loadRecords(csv.getPath());
+
+        AtomicLongArray acknowledged = new AtomicLongArray(WRITERS); // ids of every writer that were added
+        AtomicBoolean writing = new AtomicBoolean(true);
+        ConcurrentLinkedQueue<Throwable> failures = new ConcurrentLinkedQueue<>();
+        List<Thread> writers = new ArrayList<>();
+        for (int w = 0; w < WRITERS; w++) {
+            int writer = w;
+            writers.add(start(failures, () -> {
+                long base = (writer + 1) * WRITER_IDS;
+                int added = 0;
+                while (added < perWriter) {
+                    if (writer % 2 == 0) { // half of the writers add batches, half add records one at a time
+                        List<StudentRecord> batch = new ArrayList<>();
+                        for (int i = 0; i < 50; i++) batch.add(record(base + added + i));
+                        database.insertRecords(batch);
+                        added += batch.size();
+                    } else {
+                        database.insertRecord(record(base + added));
+                        added++;
+                    }
+                    acknowledged.set(writer, added);
+                }
+            }));
+        }
+        List<Thread> readers = new ArrayList<>();
+        for (int r = 0; r < READERS; r++) {
+            long seed = r;
+            readers.add(start(failures, () -> {
+                SplittableRandom random = new SplittableRandom(seed);
+                MutableStudentRecord[] holders = { new MutableStudentRecord(), new MutableStudentRecord() };
+                while (writing.get()) {
+                    int writer = random.nextInt(WRITERS);
+                    long done = acknowledged.get(writer);
+                    if (done > 0) {
+                        long id = (writer + 1) * WRITER_IDS + random.nextLong(done);
+                        StudentRecord found = database.getRecord(id);
+                        assertNotNull(found, "acknowledged id " + id + " was not found");
+                        assertEquals("Added" + id, found.getLastName());
+                    }
+                    long loaded = random.nextInt(preloaded);
+                    assertEquals("Loaded" + loaded, database.getRecord(loaded).getLastName());
+                    assertNull(database.getRecord(-1 - loaded)); // never added
+                    long[] ids = { loaded, -1 - loaded };
+                    assertEquals(1, database.getRecords(ids, holders));
+                }
+            }));
+        }
+        join(writers);
+        writing.set(false);
+        join(readers);
+        assertNoFailures(failures);
+        database.close();
+
+        Database reopened = new Database(name, memoryMapped);
+        try {
+            for (int w = 0; w < WRITERS; w++) {
+                for (long i = 0; i < perWriter; i++) {
+                    long id = (w + 1) * WRITER_IDS + i;
+                    StudentRecord found = reopened.getRecord(id);
+                    assertNotNull(found, "id " + id + " was lost after reopening");
+                    assertEquals("Added" + id, found.getLastName());
+                }
+            }
+            for (long id = 0; id < preloaded; id++) {
+                assertEquals("Loaded" + id, reopened.getRecord(id).getLastName());
+            }
+        } finally {
+            reopened.close();
+        }
+    }
+
+    // Loads large enough to bulk load the indexes run while other threads scan ranges and look up last names and
+    // grades. The scans hold only the structure lock, so one overtaken by a bulk load has to start over on the new
+    // tree and still return exactly the records that were there before the loads.
+    @Test
+    void scansAndLookupsRunDuringBulkLoads() throws Exception {
+        int preloaded = 20_000;
+        int rounds = 10;
+        int perRound = 5_000; // more than 1/16 of the index, so every load rebuilds it
+        File csv = directory.resolve("students.csv").toFile();
+        try (PrintWriter out = new PrintWriter(csv)) {
+            for (int id = 0; id < preloaded; id++) out.println(id + ",Loaded" + id + ",First,A");
+        }
+        List<File> loads = new ArrayList<>();
+        for (int round = 0; round < rounds; round++) {
+            File load = directory.resolve("load" + round + ".csv").toFile();
+            try (PrintWriter out = new PrintWriter(load)) {
+                for (int i = 0; i < perRound; i++) {
+                    long id = WRITER_IDS + (long) round * perRound + i;
+                    out.println(id + ",Batch" + round + ",First,B");
+                }
+            }
+            loads.add(load);
+        }
+        Database database = new Database(directory.resolve("students").toString());
+        try {
+            database.loadRecords(csv.getPath());
+
+            AtomicBoolean loading = new AtomicBoolean(true);
+            ConcurrentLinkedQueue<Throwable> failures = new ConcurrentLinkedQueue<>();
+            Thread loader = start(failures, () -> {
+                try {
+                    for (File load : loads) database.loadRecords(load.getPath());
+                } finally {
+                    loading.set(false);
+                }
+            });
+            List<Thread> readers = new ArrayList<>();
+            for (int r = 0; r < READERS; r++) {
+                long seed = r;
+                readers.add(start(failures, () -> {
+                    SplittableRandom random = new SplittableRandom(seed);
+                    while (loading.get()) {
+                        List<StudentRecord> range = database.scanRecords(0, preloaded - 1);
+                        assertEquals(preloaded, range.size());
+                        for (int i = 0; i < preloaded; i++) {
+                            assertEquals(i, range.get(i).getId());
+                        }
+                        long id = random.nextInt(preloaded);
+                        List<StudentRecord> named = database.findByLastName("Loaded" + id);
+                        assertEquals(1, named.size());
+                        assertEquals(id, named.get(0).getId());
+                        assertEquals(preloaded, database.findByGrade("A").size());
+                    }
+                }));
+            }
+            loader.join();
+            join(readers);
+            assertNoFailures(failures);
+            assertEquals(perRound, database.findByLastName("Batch" + (rounds - 1)).size());
+            assertEquals(rounds * perRound, database.findByGrade("B").size());
+        } finally {
+            database.close();
+        }
+    }
+
+    // The tree alone with small nodes and a small buffer pool, so inserts split often and latched pages are
+    // evicted and read back while other threads search and scan
+    @Test
+    void treeFindsEveryAcknowledgedInsert() throws Exception {
+        int perWriter = 25_000;
+        File file = directory.resolve("stress.index").toFile();
+        BPlusTree tree = new BPlusTree(file, 64, BPlusTree.DEFAULT_PAGE_SIZE, 16);
+
+        AtomicLongArray acknowledged = new AtomicLongArray(WRITERS);
+        AtomicBoolean writing = new AtomicBoolean(true);
+        ConcurrentLinkedQueue<Throwable> failures = new ConcurrentLinkedQueue<>();
+        List<Thread> writers = new ArrayList<>();
+        for (int w = 0; w < WRITERS; w++) {
+            int writer = w;
+            writers.add(start(failures, () -> {
+                for (int i = 0; i < perWriter; i++) {
+                    long key = (long) i * WRITERS + writer; // the writers interleave, so they split the same leaves
+                    tree.insert(key, key * 64);
+                    acknowledged.set(writer, i + 1);
+                }
+            }));
+        }
+        List<Thread> readers = new ArrayList<>();
+        for (int r = 0; r < READERS; r++) {
+            long seed = r;
+            readers.add(start(failures, () -> {
+                SplittableRandom random = new SplittableRandom(seed);
+                while (writing.get()) {
+                    int writer = random.nextInt(WRITERS);
+                    long done = acknowledged.get(writer);
+                    if (done == 0) continue;
+                    long key = random.nextLong(done) * WRITERS + writer;
+                    assertEquals(Long.valueOf(key * 64), tree.search(key), "acknowledged key " + key);
+                    assertNull(tree.search(-1 - key));
+                    Iterator<BPlusTree.Entry> scan = tree.scan(key, key + 3 * WRITERS);
+                    long previous = Long.MIN_VALUE;
+                    while (scan.hasNext()) {
+                        BPlusTree.Entry entry = scan.next();
+                        assertTrue(entry.key > previous, "scan out of order at " + entry.key);
+                        assertEquals(entry.key * 64, entry.value);
+                        previous = entry.key;
+                    }
+                }
+            }));
+        }
+        join(writers);
+        writing.set(false);
+        join(readers);
+        assertNoFailures(failures);
+        assertEquals(WRITERS * perWriter, tree.size());
+        tree.close();
+
+        BPlusTree reopened = new BPlusTree(file, 64);
+        try {
+            for (long key = 0; key < (long) WRITERS * perWriter; key++) {
+                assertEquals(Long.valueOf(key * 64), reopened.search(key), "key " + key + " was lost after reopening");
+            }
+        } finally {
+            reopened.close();
+        }
+    }
+
+    private interface Work {
+        void run() throws Exception;
+    }
+
+    private static Thread start(ConcurrentLinkedQueue<Throwable> failures, Work work) {
+        Thread thread = new Thread(() -> {
+            try {
+                work.run();
+            } catch (Throwable e) {
+                failures.add(e);
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private static void join(List<Thread> threads) throws InterruptedException {
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    private static void assertNoFailures(ConcurrentLinkedQueue<Throwable> failures) {
+        Throwable first = failures.peek();
+        if (first instanceof AssertionError) throw (AssertionError) first;
+        if (first != null) throw new AssertionError("A worker thread failed", first);
+    }
+
+    private static StudentRecord record(long id) {
+        return new StudentRecord(id, "Added" + id, "First", "B", -1);
+    }
+}
@@ -0,0 +1,103 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// The loader parses bytes instead of Strings, but must accept, skip and encode every line exactly like the
+// line.split(",") and trim() of the loader it replaced
+class CsvLoaderTest {
+    @TempDir
+    Path directory;
+
+    // Rows the byte parser has to treat like String.split and String.trim, with %d replaced by a unique id
+    private static final String[] EDGE_ROWS = {
+        "%d,Smith,John,A",
+        "  %d  ,\t Smith \t,  John ,  B+ ",
+        "+%d,Padded,Grade,A ",
+        "%d,Extra,Fields,C,ignored,more",
+        "%d,Empty,Grade,,x",
+        "%d,,,A",
+        "%d,Trailing,Empty,",
+        "%d,Trailing,Commas,,,",
+        "%d,Too,Few",
+        "",
+        "   ",
+        "%d,\u0141ukasiewicz-\u017B\u00F3\u0142\u0107\u0144\u015B\u017A\u0119\u0105,Zo\u00EB,A", // cut to 20 bytes in the middle of a character
+        "%d,Non\u00A0Breaking,Space,B", // a no-break space is not whitespace to trim()
+        "%d,ABCDEFGHIJKLMNOPQRSTUVWXYZ,abcdefghijklmnopqrstuvwxyz,ABC",
+        "00%d,Leading,Zeros,D",
+    };
+
+    @Test
+    void parsesLikeSplitAndTrim() throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; lines.size() < 400_000; i++) { // several chunks, so rows also straddle chunk boundaries
+            lines.add(String.format(EDGE_ROWS[i % EDGE_ROWS.length], i));
+        }
+        lines.add("9223372036854775807,Largest,Id,A");
+        lines.add("-9223372036854775808,Smallest,Id,A");
+        File csv = write(lines, true);
+        assertTrue(csv.length() > 2 * CsvLoader.CHUNK_SIZE);
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        List<Long> expectedIds = new ArrayList<>();
+        List<String> expectedSkipped = new ArrayList<>();
+        for (String line : lines) {
+            String[] data = line.split(",");
+            if (data.length < 4) {
+                expectedSkipped.add(line);
+                continue;
+            }
+            long id = Long.parseLong(data[0].trim());
+            expectedIds.add(id);
+            expected.write(new StudentRecord(id, data[1].trim(), data[2].trim(), data[3].trim(), -1).convertIntoBytes());
+        }
+
+        ByteArrayOutputStream loaded = new ByteArrayOutputStream();
+        List<Long> ids = new ArrayList<>();
+        List<String> skipped = new ArrayList<>();
+        new CsvLoader(4).load(csv, batch -> {
+            loaded.write(batch.records, 0, batch.count * 64);
+            for (int i = 0; i < batch.count; i++) ids.add(batch.ids[i]);
+            skipped.addAll(batch.skipped);
+        });
+        assertEquals(expectedIds, ids);
+        assertEquals(expectedSkipped, skipped);
+        assertArrayEquals(expected.toByteArray(), loaded.toByteArray());
+    }
+
+    // A malformed id stops the load with the same error as Long.parseLong, after the records before it
+    @Test
+    void malformedIdEndsTheLoadAfterThePrecedingRecords() throws IOException {
+        File csv = write(List.of("1,First,Row,A", "2,Second,Row,B", "x3,Bad,Id,C", "4,After,Error,D"), false);
+        List<Long> ids = new ArrayList<>();
+        NumberFormatException error = assertThrows(NumberFormatException.class, () -> new CsvLoader(2).load(csv, batch -> {
+            for (int i = 0; i < batch.count; i++) ids.add(batch.ids[i]);
+        }));
+        assertEquals(List.of(1L, 2L), ids);
+        assertEquals(assertThrows(NumberFormatException.class, () -> Long.parseLong("x3")).getMessage(), error.getMessage());
+    }
+
+    // Writes the lines in UTF-8, every other one with a Windows line ending when asked to
+    private File write(List<String> lines, boolean mixedEndings) throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < lines.size(); i++) {
+            text.append(lines.get(i)).append(mixedEndings && i % 2 == 1 ? "\r\n" : "\n");
+        }
+        Path file = directory.resolve("students.csv");
+        Files.write(file, text.toString().getBytes(StandardCharsets.UTF_8));
+        return file.toFile();
+    }
+}
@@ -0,0 +1,302 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class DatabaseTest {
+    @TempDir
+    Path directory;
+
+    // A crash after a merge built and flushed the indexes for the new file, but before the new file was renamed
+    // over the old one, leaves clean indexes that point into the new layout next to the old .db file
+    @Test
+    void reopeningAfterAnInterruptedMergeRebuildsTheIndexes() throws IOException {
+        File csv = directory.resolve("students.csv").toFile();
+        try (PrintWriter out = new PrintWriter(csv)) {
+            for (int id = 1000; id >= 1; id--) out.println(id + ",Last" + id + ",First,A"); // the merge reorders them
+        }
+        String name = directory.resolve("students").toString();
+        Path db = directory.resolve("students.db");
+        Path old = directory.resolve("old.db");
+        Database database = new Database(name);
+        database.loadRecords(csv.getPath());
+        database.close();
+        Files.copy(db, old);
+
+        database = new Database(name);
+        database.mergeRecords();
+        database.close();
+        Files.move(db, directory.resolve("students.db.compact")); // the rename never happened
+        Files.move(old, db, StandardCopyOption.REPLACE_EXISTING);
+
+        database = new Database(name);
+        try {
+            for (long id = 1; id <= 1000; id++) {
+                assertEquals("Last" + id, database.getRecord(id).getLastName());
+            }
+            assertEquals(1, database.findByLastName("Last7").size());
+        } finally {
+            database.close();
+        }
+        assertFalse(Files.exists(directory.resolve("students.db.compact")));
+    }
+
+    // A crash after a merge set the .overflow file aside but before it renamed the new file into place leaves the
+    // old .db file with the overflow records only in the set-aside file, which has to be put back
+    @Test
+    void reopeningBeforeTheMergeRenamePutsTheOverflowFileBack() throws IOException {
+        String name = directory.resolve("students").toString();
+        Path db = directory.resolve("students.db");
+        Path overflow = directory.resolve("students.overflow");
+        Path setAside = directory.resolve("students.overflow.merged");
+        createWithOverflow(name);
+        Path oldDb = Files.copy(db, directory.resolve("old.db"));
+        Path oldOverflow = Files.copy(overflow, directory.resolve("old.overflow"));
+
+        Database database = new Database(name);
+        database.mergeRecords();
+        database.close();
+        Files.move(db, directory.resolve("students.db.compact")); // the rename never happened
+        Files.move(oldDb, db, StandardCopyOption.REPLACE_EXISTING);
+        Files.delete(overflow);
+        Files.move(oldOverflow, setAside);
+
+        database = new Database(name);
+        try {
+            assertEquals(2 * 64, Files.size(overflow));
+            assertFalse(Files.exists(setAside));
+            assertEquals(101, database.count(RecordFilter.all()));
+            database.mergeRecords();
+            assertEquals("Overflow5", database.getRecord(5).getLastName());
+            assertEquals("Overflow200", database.getRecord(200).getLastName());
+        } finally {
+            database.close();
+        }
+    }
+
+    // A crash after the rename leaves the set-aside .overflow file next to the new .db file, which already holds
+    // its records. It must not come back as the overflow file, or its old copies would win over later adds.
+    @Test
+    void reopeningAfterTheMergeRenameDropsTheOverflowFile() throws IOException {
+        String name = directory.resolve("students").toString();
+        Path overflow = directory.resolve("students.overflow");
+        Path setAside = directory.resolve("students.overflow.merged");
+        createWithOverflow(name);
+        Path oldOverflow = Files.copy(overflow, directory.resolve("old.overflow"));
+
+        Database database = new Database(name);
+        database.mergeRecords();
+        database.close();
+        assertEquals(0, Files.size(overflow));
+        Files.delete(overflow);
+        Files.move(oldOverflow, setAside); // the set-aside file was never deleted
+
+        database = new Database(name);
+        try {
+            assertFalse(Files.exists(setAside));
+            assertEquals(0, Files.size(overflow));
+            assertEquals("Overflow5", database.getRecord(5).getLastName());
+            database.insertRecord(new StudentRecord(5, "Newer5", "First", "B", -1));
+            assertEquals(101, database.count(RecordFilter.all()));
+            database.mergeRecords();
+            assertEquals("Newer5", database.getRecord(5).getLastName());
+            assertEquals("Overflow200", database.getRecord(200).getLastName());
+        } finally {
+            database.close();
+        }
+    }
+
+    // Sort runs of a crashed process are deleted on open, but only the database's own
+    @Test
+    void openingDeletesLeftoverSortRuns() throws IOException {
+        Path own = Files.createFile(directory.resolve("students.sort123.run"));
+        Path other = Files.createFile(directory.resolve("other.sort456.run"));
+        Path shard = Files.createFile(directory.resolve("students.shard0.sort789.run"));
+        new Database(directory.resolve("students").toString()).close();
+        assertFalse(Files.exists(own));
+        assertTrue(Files.exists(other));
+        assertTrue(Files.exists(shard));
+    }
+
+    // The index is walked for the newest copy of every id while adds go on, so ids added again during an aggregate
+    // must still be counted exactly once, in one version or the other
+    @Test
+    void aggregateCountsEveryIdOnceWhileIdsAreAddedAgain() throws Exception {
+        int ids = 20_000;
+        File csv = directory.resolve("students.csv").toFile();
+        try (PrintWriter out = new PrintWriter(csv)) {
+            for (int id = 0; id < ids; id++) out.println(id + ",Last" + id + ",First,A");
+        }
+        Database database = new Database(directory.resolve("students").toString());
+        try {
+            database.loadRecords(csv.getPath());
+            database.loadRecords(csv.getPath()); // every id has an older copy, so the newest ones are marked
+            AtomicBoolean adding = new AtomicBoolean(true);
+            Thread writer = new Thread(() -> {
+                try {
+                    for (int id = 0; adding.get(); id = (id + 7) % ids) {
+                        database.insertRecord(new StudentRecord(id, "Last" + id, "First", "B", -1));
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            writer.start();
+            try {
+                for (int i = 0; i < 20; i++) {
+                    Map<String, Aggregate> grades = database.aggregate(RecordFilter.all(), RecordField.LETTER_GRADE);
+                    long counted = grades.values().stream().mapToLong(Aggregate::getCount).sum();
+                    assertEquals(ids, counted, "records counted by " + grades);
+                }
+            } finally {
+                adding.set(false);
+                writer.join();
+            }
+            assertEquals(ids, database.count(RecordFilter.all()));
+            assertEquals(1, database.count(RecordFilter.equalTo(RecordField.LAST_NAME, "Last7")));
+        } finally {
+            database.close();
+        }
+    }
+
+    // A range scan reads every record at the offset the scan found for it, so records added again after the load
+    // come back in their newest version and the result stays in id order although the file is not
+    @Test
+    void scanRecordsReturnsTheNewestCopiesInIdOrder() throws IOException {
+        File csv = directory.resolve("students.csv").toFile();
+        try (PrintWriter out = new PrintWriter(csv)) {
+            for (int id = 3000; id >= 1; id--) out.println(id + ",Last" + id + ",First,A");
+        }
+        Database database = new Database(directory.resolve("students").toString());
+        try {
+            database.loadRecords(csv.getPath());
+            for (long id = 100; id <= 2900; id += 100) database.insertRecord(new StudentRecord(id, "Again" + id, "First", "B", -1));
+
+            List<StudentRecord> records = database.scanRecords(50, 2950);
+            assertEquals(2901, records.size());
+            for (int i = 0; i < records.size(); i++) {
+                long id = 50 + i;
+                assertEquals(id, records.get(i).getId());
+                assertEquals((id % 100 == 0 ? "Again" : "Last") + id, records.get(i).getLastName());
+            }
+            assertEquals(0, database.scanRecords(3001, 4000).size());
+        } finally {
+            database.close();
+        }
+    }
+
+    // A crash in the middle of appending a record whose add was never acknowledged leaves part of it at the end of
+    // the .db file. Both stores drop the part on open, so later records start on a record boundary again.
+    @Test
+    void partialRecordAtTheEndIsDroppedOnOpen() throws IOException {
+        String name = directory.resolve("students").toString();
+        Path db = directory.resolve("students.db");
+        Database database = new Database(name);
+        try {
+            for (long id = 0; id < 10; id++) database.insertRecord(new StudentRecord(id, "Last" + id, "First", "A", -1));
+        } finally {
+            database.close();
+        }
+        byte[] torn = Arrays.copyOf(new StudentRecord(10, "Torn", "First", "A", -1).convertIntoBytes(), 20);
+        Files.write(db, torn, StandardOpenOption.APPEND);
+
+        database = new Database(name);
+        try {
+            assertEquals(10 * 64, Files.size(db));
+            database.insertRecord(new StudentRecord(100, "After", "Crash", "B", -1));
+        } finally {
+            database.close();
+        }
+        assertEquals(11 * 64, Files.size(db));
+
+        for (boolean memoryMapped : new boolean[] { false, true }) {
+            database = new Database(name, memoryMapped);
+            try {
+                for (long id = 0; id < 10; id++) {
+                    assertEquals("Last" + id, database.getRecord(id).getLastName());
+                }
+                assertEquals("After", database.getRecord(100).getLastName());
+                assertNull(database.getRecord(10));
+                assertEquals(11, database.count(RecordFilter.all()));
+            } finally {
+                database.close();
+            }
+        }
+    }
+
+    // Every position of a multi-get gets its own answer: repeated ids all receive the record, missing ids null or
+    // a cleared holder, and the ids are spread far enough apart that the records are read in several spans
+    @Test
+    void getRecordsAnswersDuplicateAndMissingIds() throws IOException {
+        File csv = directory.resolve("students.csv").toFile();
+        try (PrintWriter out = new PrintWriter(csv)) {
+            for (int id = 0; id < 5000; id++) out.println(id + ",Last" + id + ",First,A");
+        }
+        Database database = new Database(directory.resolve("students").toString());
+        try {
+            database.loadRecords(csv.getPath());
+            database.insertRecord(new StudentRecord(7, "Again", "First", "B", -1)); // the newest copy is returned
+
+            long[] ids = { 4999, 7, -1, 7, 0, 5000, 2500, 4999, 1234, -1 };
+            StudentRecord[] records = database.getRecords(ids);
+            assertEquals(ids.length, records.length);
+            for (int i = 0; i < ids.length; i++) {
+                StudentRecord expected = database.getRecord(ids[i]);
+                if (expected == null) {
+                    assertNull(records[i], "id " + ids[i]);
+                } else {
+                    assertEquals(ids[i], records[i].getId());
+                    assertEquals(expected.getLastName(), records[i].getLastName());
+                }
+            }
+            assertEquals("Again", records[1].getLastName());
+            assertEquals("Again", records[3].getLastName());
+
+            MutableStudentRecord[] holders = new MutableStudentRecord[ids.length];
+            for (int i = 0; i < holders.length; i++) {
+                holders[i] = new MutableStudentRecord().set(99, "Stale", "Holder", "F", -1);
+            }
+            assertEquals(7, database.getRecords(ids, holders));
+            for (int i = 0; i < ids.length; i++) {
+                if (records[i] == null) {
+                    assertTrue(holders[i].isEmpty(), "id " + ids[i]);
+                } else {
+                    assertEquals(ids[i], holders[i].getId());
+                    assertEquals(records[i].getLastName(), holders[i].getLastName());
+                }
+            }
+            assertEquals(0, database.getRecords(new long[0]).length);
+        } finally {
+            database.close();
+        }
+    }
+
+    // Creates a database with ids 1 to 100 and an .overflow file with a newer copy of id 5 and a new id 200
+    private static void createWithOverflow(String name) throws IOException {
+        Database database = new Database(name);
+        try {
+            for (long id = 1; id <= 100; id++) database.insertRecord(new StudentRecord(id, "Last" + id, "First", "A", -1));
+        } finally {
+            database.close();
+        }
+        byte[] records = new byte[2 * 64];
+        System.arraycopy(new StudentRecord(5, "Overflow5", "First", "C", -1).convertIntoBytes(), 0, records, 0, 64);
+        System.arraycopy(new StudentRecord(200, "Overflow200", "First", "C", -1).convertIntoBytes(), 0, records, 64, 64);
+        Files.write(Path.of(name + ".overflow"), records);
+    }
+}
@@ -0,0 +1,118 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Iterator;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PackedLeafTest {
+    private static final int PAGE_SIZE = BPlusTree.DEFAULT_PAGE_SIZE;
+    private static final long FAR = 1L << 40; // a key six bytes away from the others
+
+    @TempDir
+    Path directory;
+
+    // Record offsets are multiples of 64, so their distances are stored as slot numbers in a single byte
+    @Test
+    void encodeChoosesTheNarrowestWidths() {
+        ByteBuffer leaf = ByteBuffer.allocate(PAGE_SIZE);
+        long[] keys = new long[100];
+        long[] values = new long[100];
+        for (int i = 0; i < 100; i++) {
+            keys[i] = 1_000_000 + 2 * i;
+            values[i] = 64_000 + 64L * ((i * 37) % 100); // not in key order
+        }
+        assertTrue(PackedLeaf.encode(leaf, keys, values, 0, 100));
+        assertEquals(1, leaf.get(PackedLeaf.KEY_WIDTH));
+        assertEquals(1, leaf.get(PackedLeaf.VALUE_WIDTH));
+        assertEquals(6, leaf.get(PackedLeaf.VALUE_SHIFT));
+        assertEquals(200, PackedLeaf.usedBytes(leaf));
+        assertDecodes(leaf, keys, values, 100);
+        assertEquals(50, PackedLeaf.lowerBound(leaf, 0, 100, 1_000_099));
+        assertEquals(50, PackedLeaf.lowerBound(leaf, 0, 100, 1_000_100));
+        assertEquals(0, PackedLeaf.lowerBound(leaf, 0, 100, 0));
+        assertEquals(100, PackedLeaf.lowerBound(leaf, 0, 100, Long.MAX_VALUE));
+    }
+
+    // An entry that needs wider distances, or breaks the shared shift, is refused so the tree rewrites the leaf
+    @Test
+    void inPlaceChangesKeepTheWidths() {
+        ByteBuffer leaf = ByteBuffer.allocate(PAGE_SIZE);
+        long[] keys = new long[11];
+        long[] values = new long[11];
+        for (int i = 0; i < 10; i++) {
+            keys[i] = 10 * i;
+            values[i] = 64L * i;
+        }
+        assertTrue(PackedLeaf.encode(leaf, keys, values, 0, 10));
+
+        assertFalse(PackedLeaf.insertInPlace(leaf, 10, 1 << 20, 64 * 10)); // the key needs 3 bytes
+        assertFalse(PackedLeaf.insertInPlace(leaf, 10, 95, 64L * 1000)); // the value needs 2 bytes
+        assertFalse(PackedLeaf.insertInPlace(leaf, 10, 95, 64 * 9 + 32)); // not a multiple of 64
+        assertFalse(PackedLeaf.insertInPlace(leaf, 0, -1, 0)); // below the first key
+        assertFalse(PackedLeaf.setInPlace(leaf, 3, 1L << 40));
+        assertDecodes(leaf, keys, values, 10);
+
+        assertTrue(PackedLeaf.insertInPlace(leaf, 4, 35, 64 * 200));
+        assertTrue(PackedLeaf.setInPlace(leaf, 0, 64 * 100));
+        keys = new long[] { 0, 10, 20, 30, 35, 40, 50, 60, 70, 80, 90 };
+        values = new long[] { 6400, 64, 128, 192, 12800, 256, 320, 384, 448, 512, 576 };
+        assertDecodes(leaf, keys, values, 11);
+    }
+
+    // A leaf full at its current widths cannot take an entry that widens them, so it is split and the insert retried
+    @Test
+    void insertThatWidensAFullLeafSplitsIt() throws IOException {
+        File file = directory.resolve("students.index").toFile();
+        BPlusTree tree = new BPlusTree(file, 64);
+        try {
+            for (long key = 0; key < 900; key++) tree.insert(key, key * 64); // 2 + 2 bytes each, one leaf
+            assertEquals(1, tree.leafCount());
+            tree.insert(FAR, 900 * 64); // 6 + 2 bytes each no longer fit one page
+            assertTrue(tree.leafCount() >= 2);
+            assertEquals(1, tree.leafSplits());
+            tree.insert(5, 1L << 50); // a replaced value far from the others widens the values too
+
+            for (long key = 0; key < 900; key++) {
+                assertEquals(key == 5 ? 1L << 50 : key * 64, tree.search(key));
+            }
+            assertEquals(900 * 64L, tree.search(FAR));
+            long expected = 0;
+            Iterator<BPlusTree.Entry> scan = tree.scan(Long.MIN_VALUE, Long.MAX_VALUE);
+            while (scan.hasNext()) {
+                BPlusTree.Entry entry = scan.next();
+                assertEquals(expected < 900 ? expected : FAR, entry.key);
+                expected++;
+            }
+            assertEquals(901, expected);
+        } finally {
+            tree.close();
+        }
+
+        BPlusTree reopened = new BPlusTree(file, 64);
+        try {
+            assertEquals(1L << 50, reopened.search(5));
+            assertEquals(900 * 64L, reopened.search(FAR));
+        } finally {
+            reopened.close();
+        }
+    }
+
+    private static void assertDecodes(ByteBuffer leaf, long[] keys, long[] values, int count) {
+        long[] decodedKeys = new long[count];
+        long[] decodedValues = new long[count];
+        assertEquals(count, PackedLeaf.decode(leaf, 0, decodedKeys, decodedValues));
+        for (int i = 0; i < count; i++) {
+            assertEquals(keys[i], decodedKeys[i], "key " + i);
+            assertEquals(values[i], decodedValues[i], "value " + i);
+            assertEquals(keys[i], PackedLeaf.key(leaf, i));
+            assertEquals(values[i], PackedLeaf.value(leaf, i));
+        }
+    }
+}
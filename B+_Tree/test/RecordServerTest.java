@@ -0,0 +1,130 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class RecordServerTest {
+    @TempDir
+    Path directory;
+
+    private final List<Integer> batches = Collections.synchronizedList(new ArrayList<>()); // sizes of the committed add batches
+    private Database database;
+    private RecordServer server;
+    private Thread serving;
+
+    @BeforeEach
+    void start() throws IOException {
+        database = new Database(directory.resolve("students").toString()) {
+            @Override
+            public void insertRecords(List<StudentRecord> batch) throws IOException {
+                batches.add(batch.size());
+                super.insertRecords(batch);
+            }
+        };
+        server = new RecordServer(database, 0);
+        serving = new Thread(() -> {
+            try {
+                server.serve();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        serving.start();
+    }
+
+    @AfterEach
+    void stop() throws Exception {
+        server.close();
+        serving.join();
+        database.close();
+    }
+
+    // Requests sent in one go are answered in request order, and the adds among them that already arrived are
+    // committed in batches instead of one by one
+    @Test
+    void pipelinedRequestsAreAnsweredInOrder() throws IOException {
+        List<String> requests = new ArrayList<>();
+        List<String> expected = new ArrayList<>();
+        requests.add("PING");
+        expected.add("PONG");
+        for (int id = 1; id <= 10; id++) {
+            requests.add("ADD " + id + ",Last" + id + ",First,A");
+            expected.add("OK " + id);
+        }
+        requests.add("GET 5");
+        expected.add("OK 5,Last5,First,A");
+        requests.add("GET 99");
+        expected.add("NOT_FOUND 99");
+        for (int id = 11; id <= 20; id++) {
+            requests.add("ADD " + id + ", Last" + id + " ,First,B");
+            expected.add("OK " + id);
+        }
+        requests.add("ADD x,Bad,Id,C");
+        expected.add("ERR Invalid record: x,Bad,Id,C");
+        requests.add("ADD 21,Too,Few");
+        expected.add("ERR Invalid record: 21,Too,Few");
+        requests.add("ADD 22,After,Errors,D");
+        expected.add("OK 22");
+        requests.add("GET abc");
+        expected.add("ERR Invalid ID: abc");
+        requests.add("DELETE 1");
+        expected.add("ERR Unknown command: DELETE 1");
+        requests.add("GET 15");
+        expected.add("OK 15,Last15,First,B");
+
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.port())) {
+            OutputStream out = socket.getOutputStream();
+            out.write((String.join("\n", requests) + "\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            socket.shutdownOutput();
+            assertEquals(expected, readAll(socket));
+        }
+        assertEquals(21, batches.stream().mapToInt(Integer::intValue).sum());
+        assertTrue(batches.stream().anyMatch(size -> size > 1), "batches " + batches);
+        assertEquals("Last20", database.getRecord(20).getLastName());
+    }
+
+    // A client that waits for every answer must get it without sending more requests first
+    @Test
+    void answersAreSentWhenNothingMoreIsPipelined() throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.port())) {
+            OutputStream out = socket.getOutputStream();
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            out.write("ADD 7,Smith,John,A\n".getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            assertEquals("OK 7", in.readLine());
+            out.write("GET 7\n".getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            assertEquals("OK 7,Smith,John,A", in.readLine());
+            out.write("PING\n".getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            assertEquals("PONG", in.readLine());
+        }
+        assertEquals(List.of(1), batches);
+    }
+
+    private static List<String> readAll(Socket socket) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        List<String> lines = new ArrayList<>();
+        for (String line = in.readLine(); line != null; line = in.readLine()) {
+            lines.add(line);
+        }
+        return lines;
+    }
+}
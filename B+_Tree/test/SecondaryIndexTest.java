@@ -0,0 +1,116 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SecondaryIndexTest {
+    // Two last names whose FNV-1a hashes are equal, so their keys share the high 32 bits
+    private static final String NAME = "Name2rnw";
+    private static final String COLLIDING = "Namejpba";
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void collidingValuesShareCandidatesButDoNotMatch() throws IOException {
+        SecondaryIndex index = SecondaryIndex.open(directory.resolve("students.lastname.index").toFile(), 8, 20);
+        try {
+            byte[] first = record(1, NAME, "A");
+            byte[] second = record(2, COLLIDING, "A");
+            assertEquals(index.key(first, 0, 0) >>> 32, index.key(second, 0, 64) >>> 32);
+            index.insert(first, 0);
+            index.insert(second, 64);
+
+            List<Long> offsets = new ArrayList<>();
+            Iterator<BPlusTree.Entry> candidates = index.candidates(index.encode(NAME));
+            while (candidates.hasNext()) {
+                offsets.add(candidates.next().value);
+            }
+            assertEquals(List.of(0L, 64L), offsets);
+            assertTrue(index.matches(first, index.encode(NAME)));
+            assertFalse(index.matches(second, index.encode(NAME)));
+        } finally {
+            index.tree().close();
+        }
+    }
+
+    @Test
+    void lookupsDropHashCollisions() throws IOException {
+        Database database = new Database(directory.resolve("students").toString());
+        try {
+            database.insertRecord(new StudentRecord(1, NAME, "First", "A", -1));
+            database.insertRecord(new StudentRecord(2, COLLIDING, "Second", "A", -1));
+            assertEquals(List.of(1L), ids(database.findByLastName(NAME)));
+            assertEquals(List.of(2L), ids(database.findByLastName(COLLIDING)));
+        } finally {
+            database.close();
+        }
+    }
+
+    // Entries are never removed, so the entries of a record that was added again must be skipped by every lookup,
+    // also once the database was reopened
+    @Test
+    void lookupsSkipOlderCopiesOfRecordsAddedAgain() throws IOException {
+        String name = directory.resolve("students").toString();
+        Database database = new Database(name);
+        try {
+            database.insertRecord(new StudentRecord(1, "Old", "First", "A", -1));
+            database.insertRecord(new StudentRecord(2, "Old", "Second", "A", -1));
+            database.insertRecord(new StudentRecord(1, "New", "First", "B", -1));
+            assertStale(database);
+        } finally {
+            database.close();
+        }
+
+        database = new Database(name);
+        try {
+            assertStale(database);
+        } finally {
+            database.close();
+        }
+    }
+
+    // Values are matched the way records store them: trimmed and cut to the width of the field
+    @Test
+    void lookupsMatchTrimmedAndTruncatedValues() throws IOException {
+        Database database = new Database(directory.resolve("students").toString());
+        try {
+            database.insertRecord(new StudentRecord(1, "Abcdefghijklmnopqrstuvwxyz", "First", "A+", -1));
+            database.insertRecord(new StudentRecord(2, "Smith", "Second", "A", -1));
+            assertEquals(List.of(2L), ids(database.findByLastName("  Smith ")));
+            assertEquals(List.of(1L), ids(database.findByLastName("Abcdefghijklmnopqrst")));
+            assertEquals(List.of(1L), ids(database.findByLastName("Abcdefghijklmnopqrstuvwxyz")));
+            assertEquals(List.of(1L), ids(database.findByGrade("A+")));
+            assertEquals(List.of(2L), ids(database.findByGrade("A")));
+        } finally {
+            database.close();
+        }
+    }
+
+    private static void assertStale(Database database) throws IOException {
+        assertEquals(List.of(2L), ids(database.findByLastName("Old")));
+        assertEquals(List.of(1L), ids(database.findByLastName("New")));
+        assertEquals(List.of(2L), ids(database.findByGrade("A")));
+        assertEquals(List.of(1L), ids(database.findByGrade("B")));
+    }
+
+    private static List<Long> ids(List<StudentRecord> records) {
+        List<Long> ids = new ArrayList<>();
+        for (StudentRecord record : records) {
+            ids.add(record.getId());
+        }
+        return ids;
+    }
+
+    private static byte[] record(long id, String lastName, String grade) {
+        return new StudentRecord(id, lastName, "First", grade, -1).convertIntoBytes();
+    }
+}
@@ -0,0 +1,33 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ShardedDatabaseTest {
+    @TempDir
+    Path directory;
+
+    // Sharding a name that holds a database would hide its records, since the name opens the shards from then on
+    @Test
+    void refusesToShardAnExistingDatabase() throws IOException {
+        String name = directory.resolve("students").toString();
+        Database database = new Database(name);
+        database.insertRecord(new StudentRecord(1, "Lovelace", "Ada", "A", -1));
+        database.close();
+
+        assertThrows(IOException.class, () -> new ShardedDatabase(name, 4, false));
+        assertFalse(ShardedDatabase.exists(name));
+
+        database = new Database(name);
+        try {
+            assertEquals("Lovelace", database.getRecord(1).getLastName());
+        } finally {
+            database.close();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+class StudentRecordTest {
+    // Cut to 20 bytes in the middle of a character, like the encoding always cut long names
+    private static final String LONG_NAME = "\u0141ukasiewicz-\u017B\u00F3\u0142\u0107\u0144\u015B\u017A\u0119\u0105";
+
+    @Test
+    void encodesAndDecodesAtAnyPosition() {
+        StudentRecord record = new StudentRecord(42, "Smith", "John", "B+", 7 * 64);
+        ByteBuffer buffer = ByteBuffer.allocate(3 * 64);
+        Arrays.fill(buffer.array(), (byte) 0x55); // the tail and padding of the slot must be cleared
+        record.encode(buffer, 64);
+        assertArrayEquals(record.convertIntoBytes(), Arrays.copyOfRange(buffer.array(), 64, 128));
+        assertEquals(0x55, buffer.get(63));
+        assertEquals(0x55, buffer.get(128));
+
+        StudentRecord decoded = StudentRecord.decode(buffer, 64);
+        assertEquals(42, decoded.getId());
+        assertEquals("Smith", decoded.getLastName());
+        assertEquals("John", decoded.getFirstName());
+        assertEquals("B+", decoded.getLetterGrade());
+    }
+
+    // Non-ASCII names take the slow path, but must give the bytes and Strings of the original fixed-size encoding
+    @Test
+    void nonAsciiNamesKeepTheirUtf8Form() {
+        String shortName = "Zo\u00EB";
+        byte[] bytes = new StudentRecord(1, LONG_NAME, shortName, "A", -1).convertIntoBytes();
+        assertArrayEquals(fixedSize(LONG_NAME, 20), Arrays.copyOfRange(bytes, 8, 28));
+        assertArrayEquals(fixedSize(shortName, 20), Arrays.copyOfRange(bytes, 28, 48));
+
+        StudentRecord decoded = StudentRecord.convertFromBytes(bytes);
+        assertEquals(new String(bytes, 8, 20, StandardCharsets.UTF_8).trim(), decoded.getLastName());
+        assertEquals(shortName, decoded.getFirstName());
+    }
+
+    // The link is written at byte 50, so it has to be read there too, or a decoded and re-encoded record loses it
+    @Test
+    void overflowLinkIsReadWhereItIsWritten() {
+        long link = 0x0102030405060708L;
+        byte[] bytes = new StudentRecord(5, "Smith", "John", "A", link).convertIntoBytes();
+        assertEquals(link, ByteBuffer.wrap(bytes).getLong(50));
+        assertEquals(link, new RecordView().point(ByteBuffer.wrap(bytes), 0).getOverflowLink());
+        assertEquals(link, new MutableStudentRecord().readFrom(ByteBuffer.wrap(bytes), 0).getOverflowLink());
+        assertArrayEquals(bytes, StudentRecord.convertFromBytes(bytes).convertIntoBytes());
+        assertArrayEquals(bytes, new RecordView().point(ByteBuffer.wrap(bytes), 0).toRecord().convertIntoBytes());
+    }
+
+    @Test
+    void mutableRecordRoundTrips() {
+        StudentRecord record = new StudentRecord(9, LONG_NAME, "John", "C", -1);
+        MutableStudentRecord holder = new MutableStudentRecord();
+        assertTrue(holder.isEmpty());
+        holder.set(9, LONG_NAME, new StringBuilder("John"), "C", -1);
+        assertFalse(holder.isEmpty());
+
+        ByteBuffer buffer = ByteBuffer.allocate(2 * 64);
+        holder.writeTo(buffer, 64);
+        assertArrayEquals(record.convertIntoBytes(), Arrays.copyOfRange(buffer.array(), 64, 128));
+
+        MutableStudentRecord copy = new MutableStudentRecord().readFrom(buffer, 64);
+        StudentRecord decoded = StudentRecord.convertFromBytes(record.convertIntoBytes());
+        assertEquals(9, copy.getId());
+        assertEquals(decoded.getLastName(), copy.getLastName());
+        assertEquals("John", copy.getFirstName());
+        assertEquals("C", copy.getLetterGrade());
+        assertEquals(-1, copy.getOverflowLink());
+        assertArrayEquals(decoded.convertIntoBytes(), copy.toRecord().convertIntoBytes()); // the cut character decodes as U+FFFD
+
+        StringBuilder builder = new StringBuilder("[");
+        copy.appendLastName(builder).append('|');
+        copy.appendFirstName(builder).append('|');
+        copy.appendLetterGrade(builder).append(']');
+        assertEquals("[" + decoded.getLastName() + "|John|C]", builder.toString());
+
+        copy.clear();
+        assertTrue(copy.isEmpty());
+        assertEquals(0, copy.getId());
+        assertEquals("", copy.getLastName());
+    }
+
+    private static byte[] fixedSize(String text, int size) {
+        return Arrays.copyOf(text.getBytes(StandardCharsets.UTF_8), size);
+    }
+}
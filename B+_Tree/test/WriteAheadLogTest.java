@@ -0,0 +1,110 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class WriteAheadLogTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void replaysCommittedEntriesInOrder() throws IOException {
+        File file = directory.resolve("students.wal").toFile();
+        WriteAheadLog wal = new WriteAheadLog(file);
+        long position = 0;
+        for (int i = 0; i < 5; i++) {
+            position = wal.append(i * 64L, record(i));
+        }
+        wal.commit(position);
+        wal.close();
+
+        List<Long> offsets = new ArrayList<>();
+        List<byte[]> records = new ArrayList<>();
+        WriteAheadLog reopened = new WriteAheadLog(file);
+        try {
+            assertEquals(5, reopened.replay((offset, bytes) -> {
+                offsets.add(offset);
+                records.add(bytes.clone());
+            }));
+        } finally {
+            reopened.close();
+        }
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i * 64L, offsets.get(i));
+            assertArrayEquals(record(i), records.get(i));
+        }
+    }
+
+    // A crash in the middle of writing an entry leaves part of it at the end of the file. The part is cut off on
+    // open, so the next entry is written where it started instead of after the torn bytes.
+    @Test
+    void tornEntryAtTheEndIsCutOff() throws IOException {
+        File file = directory.resolve("students.wal").toFile();
+        writeEntries(file, 3);
+        try (RandomAccessFile raw = new RandomAccessFile(file, "rw")) {
+            raw.setLength(2 * WriteAheadLog.ENTRY_SIZE + WriteAheadLog.ENTRY_SIZE / 2);
+        }
+
+        WriteAheadLog wal = new WriteAheadLog(file);
+        assertEquals(2 * WriteAheadLog.ENTRY_SIZE, file.length());
+        assertEquals(2, wal.replay((offset, bytes) -> { }));
+        wal.commit(wal.append(9 * 64L, record(9)));
+        wal.close();
+
+        List<Long> offsets = new ArrayList<>();
+        WriteAheadLog reopened = new WriteAheadLog(file);
+        try {
+            assertEquals(3, reopened.replay((offset, bytes) -> offsets.add(offset)));
+        } finally {
+            reopened.close();
+        }
+        assertEquals(List.of(0L, 64L, 9 * 64L), offsets);
+    }
+
+    // An entry whose checksum does not match ends the log, and the entries after it are dropped with it
+    @Test
+    void entryWithABadChecksumEndsTheLog() throws IOException {
+        File file = directory.resolve("students.wal").toFile();
+        writeEntries(file, 4);
+        try (RandomAccessFile raw = new RandomAccessFile(file, "rw")) {
+            long at = WriteAheadLog.ENTRY_SIZE + 20; // a byte of the second record
+            raw.seek(at);
+            int value = raw.read();
+            raw.seek(at);
+            raw.write(value ^ 0x01);
+        }
+
+        List<Long> offsets = new ArrayList<>();
+        WriteAheadLog wal = new WriteAheadLog(file);
+        try {
+            assertEquals(1, wal.replay((offset, bytes) -> offsets.add(offset)));
+        } finally {
+            wal.close();
+        }
+        assertEquals(List.of(0L), offsets);
+        assertEquals(WriteAheadLog.ENTRY_SIZE, file.length());
+    }
+
+    private static void writeEntries(File file, int count) throws IOException {
+        WriteAheadLog wal = new WriteAheadLog(file);
+        try {
+            for (int i = 0; i < count; i++) {
+                wal.commit(wal.append(i * 64L, record(i)));
+            }
+        } finally {
+            wal.close();
+        }
+    }
+
+    private static byte[] record(long id) {
+        return new StudentRecord(id, "Last" + id, "First" + id, "A", -1).convertIntoBytes();
+    }
+}
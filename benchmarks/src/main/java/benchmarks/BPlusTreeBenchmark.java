@@ -0,0 +1,111 @@
+package benchmarks;
+
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Inserts and lookups on the paged B+ tree, without the record files around it
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BPlusTreeBenchmark {
+    static final MethodHandle NEW_TREE = Handles.constructor("BPlusTree", File.class);
+    static final MethodHandle INSERT = Handles.method("BPlusTree", "insert", void.class, long.class, long.class);
+    static final MethodHandle SEARCH = Handles.method("BPlusTree", "search", Long.class, long.class);
+    static final MethodHandle CLOSE = Handles.method("BPlusTree", "close", void.class);
+
+    // A tree that grows by one key per call, recreated for every iteration
+    @State(Scope.Thread)
+    public static class Growing {
+        File directory;
+        Object tree;
+        long next; // Number of keys inserted so far
+
+        @Setup(Level.Iteration)
+        public void open() throws Throwable {
+            directory = Fixtures.directory("bptree");
+            tree = (Object) NEW_TREE.invokeExact(new File(directory, "tree.index"));
+            next = 0;
+        }
+
+        @TearDown(Level.Iteration)
+        public void close() throws Throwable {
+            CLOSE.invokeExact(tree);
+            Fixtures.delete(directory);
+        }
+    }
+
+    // A tree holding the even keys below 2 * size, so even keys hit and odd keys miss
+    @State(Scope.Benchmark)
+    public static class Filled {
+        @Param({"1000000"})
+        int size;
+
+        File directory;
+        Object tree;
+        long[] probes = new long[1 << 16]; // Random even keys, walked in order by the lookups
+        int position;
+
+        @Setup(Level.Trial)
+        public void open() throws Throwable {
+            directory = Fixtures.directory("bptree");
+            tree = (Object) NEW_TREE.invokeExact(new File(directory, "tree.index"));
+            for (long key = 0; key < size; key++) {
+                INSERT.invokeExact(tree, key * 2, key);
+            }
+            SplittableRandom random = new SplittableRandom(Fixtures.SEED);
+            for (int i = 0; i < probes.length; i++) {
+                probes[i] = random.nextLong(size) * 2;
+            }
+        }
+
+        long nextProbe() {
+            return probes[position++ & (probes.length - 1)];
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws Throwable {
+            CLOSE.invokeExact(tree);
+            Fixtures.delete(directory);
+        }
+    }
+
+    @Benchmark
+    public void insertSequential(Growing state) throws Throwable {
+        long key = state.next++;
+        INSERT.invokeExact(state.tree, key, key);
+    }
+
+    @Benchmark
+    public void insertRandom(Growing state) throws Throwable {
+        long key = state.next++;
+        INSERT.invokeExact(state.tree, Fixtures.mix(key), key);
+    }
+
+    @Benchmark
+    public Long searchHit(Filled state) throws Throwable {
+        return (Long) SEARCH.invokeExact(state.tree, state.nextProbe());
+    }
+
+    @Benchmark
+    public Long searchMiss(Filled state) throws Throwable {
+        return (Long) SEARCH.invokeExact(state.tree, state.nextProbe() + 1);
+    }
+}
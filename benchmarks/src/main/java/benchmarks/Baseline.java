@@ -0,0 +1,31 @@
+package benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// Entry point of benchmarks.jar. Takes the usual JMH command line, and always adds the gc profiler so every run
+// reports allocation rates next to the timings. Results go to jmh-result.json unless -rf/-rff say otherwise,
+// which is the file to keep as the baseline of a release.
+public final class Baseline {
+    private Baseline() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions options = new CommandLineOptions(args);
+        if (options.shouldHelp() || options.shouldList() || options.shouldListProfilers() || options.shouldListResultFormats()) {
+            org.openjdk.jmh.Main.main(args); // informational options are handled by JMH itself
+            return;
+        }
+        ChainedOptionsBuilder run = new OptionsBuilder().parent(options);
+        boolean profiled = options.getProfilers().stream().anyMatch(profiler -> profiler.getKlass().equals(GCProfiler.class.getName()) || profiler.getKlass().equals("gc"));
+        if (!profiled) run.addProfiler(GCProfiler.class);
+        if (!options.getResult().hasValue() && !options.getResultFormat().hasValue()) {
+            run.resultFormat(ResultFormatType.JSON).result("jmh-result.json");
+        }
+        new Runner(run.build()).run();
+    }
+}
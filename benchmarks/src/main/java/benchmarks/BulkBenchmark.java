@@ -0,0 +1,112 @@
+package benchmarks;
+
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Whole-file operations: loading a generated CSV into an empty database, merging a loaded database, and counting
+// its records per grade with an aggregate scan, which skips the older copy of every record.
+// Each measurement is one cold run on fresh files; pick sizes with -p rows=10000,100000 to keep runs short.
+// With -p shards=4 the same operations run on a ShardedDatabase, whose shards load and merge in parallel.
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BulkBenchmark {
+    static final MethodHandle NEW_DATABASE = Handles.constructor("Database", String.class, boolean.class);
+    static final MethodHandle NEW_SHARDED = Handles.constructor("ShardedDatabase", String.class, int.class, boolean.class);
+    static final MethodHandle LOAD_RECORDS = Handles.method("RecordManager", "loadRecords", void.class, String.class);
+    static final MethodHandle MERGE_RECORDS = Handles.method("RecordManager", "mergeRecords", void.class);
+    static final MethodHandle AGGREGATE = Handles.method("RecordManager", "aggregate", Map.class,
+                                                         Handles.type("RecordFilter"), Handles.type("RecordField"), int.class);
+    static final MethodHandle ALL_RECORDS = Handles.staticMethod("RecordFilter", "all", Handles.type("RecordFilter"));
+    static final MethodHandle FIELD = Handles.staticMethod("RecordField", "valueOf", Handles.type("RecordField"), String.class);
+    static final MethodHandle CLOSE = Handles.method("RecordManager", "close", void.class);
+
+    @Param({"10000", "100000", "1000000", "10000000"})
+    int rows;
+
+    @Param({"false"})
+    boolean memoryMapped;
+
+    @Param({"0"})
+    int shards; // 0 for a single Database
+
+    File directory;
+    File csv;
+    int run; // Numbers the databases, so every invocation starts from fresh files
+    Object empty; // Database the load benchmark fills
+    Object loaded; // Database holding the CSV, which the merge benchmark compacts
+    Object allRecords; // RecordFilter passing every record
+    Object grade; // RecordField.LETTER_GRADE
+
+    @Setup(Level.Trial)
+    public void generate() throws Throwable {
+        directory = Fixtures.directory("bulk");
+        csv = Fixtures.csv(directory, rows);
+        Fixtures.muteConsole();
+        allRecords = (Object) ALL_RECORDS.invokeExact();
+        grade = (Object) FIELD.invokeExact("LETTER_GRADE");
+    }
+
+    @Setup(Level.Invocation)
+    public void open() throws Throwable {
+        run++;
+        empty = openDatabase(new File(directory, "empty" + run));
+        loaded = openDatabase(new File(directory, "loaded" + run));
+        LOAD_RECORDS.invokeExact(loaded, csv.getPath());
+        LOAD_RECORDS.invokeExact(loaded, csv.getPath()); // a second copy of every record for the merge to drop
+    }
+
+    Object openDatabase(File base) throws Throwable {
+        if (shards > 0) return (Object) NEW_SHARDED.invokeExact(base.getPath(), shards, memoryMapped);
+        return (Object) NEW_DATABASE.invokeExact(base.getPath(), memoryMapped);
+    }
+
+    @TearDown(Level.Invocation)
+    public void close() throws Throwable {
+        CLOSE.invokeExact(empty);
+        CLOSE.invokeExact(loaded);
+        for (File file : directory.listFiles()) {
+            if (!file.equals(csv)) file.delete();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws Throwable {
+        Fixtures.restoreConsole();
+        Fixtures.delete(directory);
+    }
+
+    @Benchmark
+    public void loadRecords() throws Throwable {
+        LOAD_RECORDS.invokeExact(empty, csv.getPath());
+    }
+
+    @Benchmark
+    public void mergeRecords() throws Throwable {
+        MERGE_RECORDS.invokeExact(loaded);
+    }
+
+    @Benchmark
+    public Map<?, ?> aggregateGrades() throws Throwable {
+        return (Map<?, ?>) AGGREGATE.invokeExact(loaded, allRecords, grade, 2);
+    }
+}
@@ -0,0 +1,139 @@
+package benchmarks;
+
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.lang.reflect.Array;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Single-record operations of the Database as the add and show commands run them, and batch lookups
+// of 1024 ids one by one and with the multi-get, reported per record.
+// The messages Database prints are sent to a null stream, so the results do not depend on the console.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DatabaseBenchmark {
+    static final MethodHandle NEW_DATABASE = Handles.constructor("Database", String.class, boolean.class);
+    static final MethodHandle NEW_RECORD = Handles.constructor("StudentRecord", long.class, String.class, String.class, String.class, long.class);
+    static final MethodHandle ADD_RECORD = Handles.method("Database", "addRecord", void.class, Handles.type("StudentRecord"));
+    static final MethodHandle SHOW_RECORD = Handles.method("Database", "showRecord", void.class, long.class);
+    static final MethodHandle LOAD_RECORDS = Handles.method("Database", "loadRecords", void.class, String.class);
+    static final MethodHandle GET_RECORD = Handles.method("Database", "getRecord", Handles.type("StudentRecord"), long.class);
+    static final MethodHandle GET_RECORDS = Handles.method("Database", "getRecords", Handles.type("StudentRecord").arrayType(), long[].class);
+    static final MethodHandle GET_RECORDS_INTO = Handles.method("Database", "getRecords", int.class, long[].class, Handles.type("MutableStudentRecord").arrayType());
+    static final MethodHandle NEW_HOLDER = Handles.constructor("MutableStudentRecord");
+    static final MethodHandle CLOSE = Handles.method("Database", "close", void.class);
+
+    @Param({"1000000"})
+    int size; // Records loaded before the benchmark starts
+
+    @Param({"false", "true"})
+    boolean memoryMapped; // Record store backend, as selected by --mmap
+
+    File directory;
+    Object database;
+    long[] ids = new long[1 << 16]; // Ids of loaded records, walked in order by showRecord
+    int position;
+    long next = -1; // Ids for added records, negative so they never collide with loaded ones
+    static final int BATCH = 1024; // Ids per batch lookup
+    long[] batch = new long[BATCH];
+    Object holders; // Reusable MutableStudentRecord[] for the multi-get
+
+    @Setup(Level.Trial)
+    public void open() throws Throwable {
+        directory = Fixtures.directory("database");
+        File csv = Fixtures.csv(directory, size);
+        Fixtures.muteConsole();
+        database = (Object) NEW_DATABASE.invokeExact(new File(directory, "students").getPath(), memoryMapped);
+        LOAD_RECORDS.invokeExact(database, csv.getPath());
+
+        // the CSV generator's ids, replayed from the same seed
+        SplittableRandom random = new SplittableRandom(Fixtures.SEED);
+        long[] all = new long[size];
+        for (int i = 0; i < size; i++) {
+            all[i] = random.nextLong(1_000_000_000_000L);
+            random.nextInt(5);
+        }
+        SplittableRandom pick = new SplittableRandom(Fixtures.SEED + 1);
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = all[pick.nextInt(size)];
+        }
+        Object[] array = (Object[]) Array.newInstance(Handles.type("MutableStudentRecord"), BATCH);
+        for (int i = 0; i < BATCH; i++) {
+            array[i] = (Object) NEW_HOLDER.invokeExact();
+        }
+        holders = array;
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws Throwable {
+        CLOSE.invokeExact(database);
+        Fixtures.restoreConsole();
+        Fixtures.delete(directory);
+    }
+
+    @Benchmark
+    public void addRecord() throws Throwable {
+        Object record = (Object) NEW_RECORD.invokeExact(next--, "Last", "First", "A", -1L);
+        ADD_RECORD.invokeExact(database, record); // every add waits for its write-ahead log force
+    }
+
+    @Benchmark
+    public void showRecord() throws Throwable {
+        SHOW_RECORD.invokeExact(database, ids[position++ & (ids.length - 1)]);
+    }
+
+    @Benchmark
+    public void showMissingRecord() throws Throwable {
+        SHOW_RECORD.invokeExact(database, ids[position++ & (ids.length - 1)] + 1_000_000_000_000L); // beyond every generated id
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void getRecordsOneByOne(Blackhole blackhole) throws Throwable {
+        nextBatch();
+        for (long id : batch) {
+            blackhole.consume((Object) GET_RECORD.invokeExact(database, id));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public Object getRecords() throws Throwable {
+        nextBatch();
+        return (Object) GET_RECORDS.invokeExact(database, batch);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int getRecordsIntoHolders() throws Throwable {
+        nextBatch();
+        return (int) GET_RECORDS_INTO.invokeExact(database, batch, holders);
+    }
+
+    // Fills the batch with the next ids of the walk
+    private void nextBatch() {
+        for (int i = 0; i < BATCH; i++) {
+            batch[i] = ids[position++ & (ids.length - 1)];
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.SplittableRandom;
+import java.util.stream.Stream;
+
+// Files and data shared by the benchmarks
+final class Fixtures {
+    static final long SEED = 42; // Every run generates the same data
+    private static final String[] GRADES = {"A", "B", "C", "D", "F"};
+    private static final PrintStream CONSOLE = System.out;
+
+    private Fixtures() {
+    }
+
+    // Creates an empty temporary directory for database or index files
+    static File directory(String prefix) throws IOException {
+        return Files.createTempDirectory(prefix).toFile();
+    }
+
+    // Deletes a directory created by directory() with everything in it
+    static void delete(File directory) throws IOException {
+        if (directory == null || !directory.exists()) return;
+        try (Stream<Path> paths = Files.walk(directory.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    // Writes a CSV of student records in the format the load command reads, with random distinct-ish ids
+    static File csv(File directory, int rows) throws IOException {
+        File file = new File(directory, "students-" + rows + ".csv");
+        SplittableRandom random = new SplittableRandom(SEED);
+        try (BufferedWriter out = new BufferedWriter(new FileWriter(file), 1 << 16)) {
+            for (int i = 0; i < rows; i++) {
+                out.write(Long.toString(random.nextLong(1_000_000_000_000L)));
+                out.write(",Last" + i + ",First" + i + "," + GRADES[random.nextInt(GRADES.length)]);
+                out.newLine();
+            }
+        }
+        return file;
+    }
+
+    // Spreads sequential numbers over the whole key space, for random-order keys that are still unique
+    static long mix(long value) {
+        value = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+        value = (value ^ (value >>> 27)) * 0x94D049BB133111EBL;
+        return value ^ (value >>> 31);
+    }
+
+    // Silences the messages Database prints for every operation, so console I/O is not measured
+    static void muteConsole() {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    static void restoreConsole() {
+        System.setOut(CONSOLE);
+    }
+}
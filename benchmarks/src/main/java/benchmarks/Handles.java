@@ -0,0 +1,74 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+// The record manager lives in the unnamed package, which a named package cannot import and JMH cannot generate
+// benchmarks for. The benchmarks reach it through method handles instead; held in static final fields and called
+// with invokeExact, the JIT compiler inlines them like direct calls, so they add no cost or allocation of their own.
+// Receivers and reference results are typed as Object, primitive parameters and results keep their types.
+final class Handles {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private Handles() {
+    }
+
+    // A record manager class, for parameter types of the handles
+    static Class<?> type(String className) {
+        try {
+            return Class.forName(className);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("No class " + className, e);
+        }
+    }
+
+    // Constructor of a record manager class, returning the new object as an Object
+    static MethodHandle constructor(String className, Class<?>... parameters) {
+        try {
+            Class<?> type = type(className);
+            return erase(access(type).findConstructor(type, MethodType.methodType(void.class, parameters)));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new IllegalStateException("No constructor " + className + " with parameters " + parameters.length, e);
+        }
+    }
+
+    // Instance method of a record manager class, taking the receiver as an Object
+    static MethodHandle method(String className, String name, Class<?> returnType, Class<?>... parameters) {
+        try {
+            Class<?> type = type(className);
+            return erase(access(type).findVirtual(type, name, MethodType.methodType(returnType, parameters)));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new IllegalStateException("No method " + className + "." + name, e);
+        }
+    }
+
+    // Static method of a record manager class
+    static MethodHandle staticMethod(String className, String name, Class<?> returnType, Class<?>... parameters) {
+        try {
+            Class<?> type = type(className);
+            return erase(access(type).findStatic(type, name, MethodType.methodType(returnType, parameters)));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new IllegalStateException("No method " + className + "." + name, e);
+        }
+    }
+
+    // Gives the lookup access to package-private classes such as BPlusTree
+    private static MethodHandles.Lookup access(Class<?> type) throws IllegalAccessException {
+        return MethodHandles.privateLookupIn(type, LOOKUP);
+    }
+
+    // Widens record manager types in the parameters and result to Object, so call sites do not need to name them
+    private static MethodHandle erase(MethodHandle handle) {
+        MethodType type = handle.type();
+        for (int i = 0; i < type.parameterCount(); i++) {
+            if (isRecordManagerType(type.parameterType(i))) type = type.changeParameterType(i, Object.class);
+        }
+        if (isRecordManagerType(type.returnType())) type = type.changeReturnType(Object.class);
+        return handle.asType(type);
+    }
+
+    private static boolean isRecordManagerType(Class<?> type) {
+        return !type.isPrimitive() && type.getPackageName().isEmpty();
+    }
+}
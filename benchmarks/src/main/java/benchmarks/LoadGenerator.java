@@ -0,0 +1,210 @@
+package benchmarks;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+
+// Load generator for the record server started with "java Main --serve <db> --port N".
+// Every connection keeps up to --pipeline requests in flight: a sender thread writes requests while permits are
+// available and a receiver thread matches the in-order responses to their send times. A mix of GETs of preloaded ids
+// and ADDs of new ids runs for the warmup and then the measured period, after which throughput and latency
+// percentiles are printed. The loop is closed, so latencies do not include time requests would have waited while the
+// pipeline was full; compare runs at the same connection count and depth.
+//
+//   java -cp benchmarks/target/benchmarks.jar benchmarks.LoadGenerator --port 7878 --connections 8 --pipeline 32 \
+//        --seconds 10 --writes 10 --keys 100000 --preload
+public class LoadGenerator {
+    static final long WRITE_ID_BASE = 1_000_000_000_000L; // Added ids start here, far above the preloaded ones
+
+    String host = "localhost";
+    int port = 7878;
+    int connections = 4;
+    int pipeline = 16; // Requests in flight per connection
+    int seconds = 10; // Measured period
+    int warmupSeconds = 2;
+    int writePercent = 10; // Share of requests that are ADDs
+    long keys = 100_000; // GETs pick ids in [1, keys]
+    boolean preload; // Add ids 1..keys before measuring
+
+    public static void main(String[] args) throws Exception {
+        LoadGenerator generator = new LoadGenerator();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--host": generator.host = args[++i]; break;
+                case "--port": generator.port = Integer.parseInt(args[++i]); break;
+                case "--connections": generator.connections = Integer.parseInt(args[++i]); break;
+                case "--pipeline": generator.pipeline = Integer.parseInt(args[++i]); break;
+                case "--seconds": generator.seconds = Integer.parseInt(args[++i]); break;
+                case "--warmup": generator.warmupSeconds = Integer.parseInt(args[++i]); break;
+                case "--writes": generator.writePercent = Integer.parseInt(args[++i]); break;
+                case "--keys": generator.keys = Long.parseLong(args[++i]); break;
+                case "--preload": generator.preload = true; break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        generator.run();
+    }
+
+    void run() throws Exception {
+        if (preload) preload();
+        long start = System.nanoTime();
+        long measureFrom = start + warmupSeconds * 1_000_000_000L;
+        long end = measureFrom + seconds * 1_000_000_000L;
+        List<Connection> running = new ArrayList<>();
+        for (int i = 0; i < connections; i++) {
+            running.add(new Connection(i, measureFrom, end));
+        }
+        for (Connection connection : running) {
+            connection.start();
+        }
+        long[] latencies = new long[0];
+        long errors = 0;
+        for (Connection connection : running) {
+            connection.join();
+            latencies = concat(latencies, connection.latencies, connection.count);
+            errors += connection.errors;
+        }
+        Arrays.sort(latencies);
+        System.out.printf("%d connections, pipeline %d, %d%% writes, %d s measured%n", connections, pipeline, writePercent, seconds);
+        System.out.printf("requests: %d (%.0f/s), errors: %d%n", latencies.length, latencies.length / (double) seconds, errors);
+        System.out.printf("latency (us): p50 %d, p90 %d, p99 %d, p99.9 %d, max %d%n", percentile(latencies, 50),
+                          percentile(latencies, 90), percentile(latencies, 99), percentile(latencies, 99.9),
+                          latencies.length == 0 ? 0 : latencies[latencies.length - 1] / 1000);
+    }
+
+    // Adds ids 1..keys through one pipelined connection, answering every add before returning
+    void preload() throws IOException {
+        try (Socket socket = new Socket(host, port);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), 1 << 16)) {
+            int batch = 1024;
+            for (long first = 1; first <= keys; first += batch) {
+                long last = Math.min(keys, first + batch - 1);
+                for (long id = first; id <= last; id++) {
+                    out.write("ADD " + id + ",Last" + id % 1000 + ",First,B\n");
+                }
+                out.flush();
+                for (long id = first; id <= last; id++) {
+                    String response = in.readLine();
+                    if (response == null || !response.startsWith("OK")) throw new IOException("Preload failed: " + response);
+                }
+            }
+        }
+        System.out.println("Preloaded " + keys + " records.");
+    }
+
+    // One pipelined connection with a sender and a receiver thread
+    class Connection {
+        final int number;
+        final long measureFrom;
+        final long end;
+        final Semaphore permits = new Semaphore(pipeline);
+        final BlockingQueue<Long> sent = new ArrayBlockingQueue<>(pipeline); // Send times of requests awaiting a response
+        long[] latencies = new long[1 << 16];
+        int count;
+        long errors;
+        volatile boolean done; // Set by the sender once it stopped sending
+        Thread sender;
+        Thread receiver;
+        Socket socket;
+        IOException failure;
+
+        Connection(int number, long measureFrom, long end) {
+            this.number = number;
+            this.measureFrom = measureFrom;
+            this.end = end;
+        }
+
+        void start() throws IOException {
+            socket = new Socket(host, port);
+            socket.setTcpNoDelay(true);
+            sender = new Thread(this::send, "load-sender-" + number);
+            receiver = new Thread(this::receive, "load-receiver-" + number);
+            sender.start();
+            receiver.start();
+        }
+
+        void join() throws Exception {
+            sender.join();
+            receiver.join();
+            socket.close();
+            if (failure != null) throw failure;
+        }
+
+        private void send() {
+            SplittableRandom random = new SplittableRandom(number);
+            long nextId = WRITE_ID_BASE * (number + 1);
+            try {
+                Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), 1 << 16);
+                while (System.nanoTime() < end) {
+                    permits.acquire();
+                    int requests = 1 + permits.drainPermits(); // Send everything the pipeline has room for in one write
+                    for (int i = 0; i < requests; i++) {
+                        if (random.nextInt(100) < writePercent) out.write("ADD " + nextId++ + ",Load,Generator,A\n");
+                        else out.write("GET " + (1 + random.nextLong(keys)) + "\n");
+                        sent.add(System.nanoTime());
+                    }
+                    out.flush();
+                }
+                done = true;
+                socket.shutdownOutput();
+            } catch (IOException | InterruptedException e) {
+                fail(e);
+            }
+        }
+
+        private void receive() {
+            try {
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8), 1 << 16);
+                String response;
+                while ((response = in.readLine()) != null) {
+                    long now = System.nanoTime();
+                    long sentAt = sent.take();
+                    if (response.startsWith("ERR")) errors++;
+                    if (sentAt >= measureFrom && sentAt < end) {
+                        if (count == latencies.length) latencies = Arrays.copyOf(latencies, count * 2);
+                        latencies[count++] = now - sentAt;
+                    }
+                    permits.release();
+                }
+                if (!done || !sent.isEmpty()) throw new IOException("Server closed the connection");
+            } catch (IOException | InterruptedException e) {
+                fail(e);
+            }
+        }
+
+        private synchronized void fail(Exception e) {
+            if (failure == null) failure = e instanceof IOException ? (IOException) e : new IOException(e);
+            try {
+                socket.close(); // Unblocks the other thread
+            } catch (IOException ignored) {
+                // already closed
+            }
+        }
+    }
+
+    private static long[] concat(long[] all, long[] more, int count) {
+        long[] joined = Arrays.copyOf(all, all.length + count);
+        System.arraycopy(more, 0, joined, all.length, count);
+        return joined;
+    }
+
+    // Value at the given percentile of sorted nanosecond latencies, in microseconds
+    private static long percentile(long[] sorted, double percent) {
+        if (sorted.length == 0) return 0;
+        int index = (int) Math.ceil(percent / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1000;
+    }
+}
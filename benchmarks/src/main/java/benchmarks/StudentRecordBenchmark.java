@@ -0,0 +1,70 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Conversion of a student record to and from its 64 byte form, with new objects and with the allocation-free codec
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StudentRecordBenchmark {
+    static final MethodHandle NEW_RECORD = Handles.constructor("StudentRecord", long.class, String.class, String.class, String.class, long.class);
+    static final MethodHandle ENCODE = Handles.method("StudentRecord", "convertIntoBytes", byte[].class);
+    static final MethodHandle DECODE = Handles.staticMethod("StudentRecord", "convertFromBytes", Handles.type("StudentRecord"), byte[].class);
+    static final MethodHandle ENCODE_TO = Handles.method("StudentRecord", "encode", void.class, ByteBuffer.class, int.class);
+    static final MethodHandle NEW_HOLDER = Handles.constructor("MutableStudentRecord");
+    static final MethodHandle READ_FROM = Handles.method("MutableStudentRecord", "readFrom", Handles.type("MutableStudentRecord"), ByteBuffer.class, int.class);
+    static final MethodHandle APPEND_LAST_NAME = Handles.method("MutableStudentRecord", "appendLastName", StringBuilder.class, StringBuilder.class);
+
+    Object record;
+    byte[] bytes;
+    ByteBuffer buffer = ByteBuffer.allocate(64);
+    Object holder;
+    StringBuilder line = new StringBuilder();
+
+    @Setup
+    public void create() throws Throwable {
+        record = (Object) NEW_RECORD.invokeExact(123456789L, "Lovelace", "Ada", "A+", -1L);
+        bytes = (byte[]) ENCODE.invokeExact(record);
+        buffer.put(0, bytes);
+        holder = (Object) NEW_HOLDER.invokeExact();
+    }
+
+    @Benchmark
+    public byte[] encode() throws Throwable {
+        return (byte[]) ENCODE.invokeExact(record);
+    }
+
+    @Benchmark
+    public Object decode() throws Throwable {
+        return (Object) DECODE.invokeExact(bytes);
+    }
+
+    @Benchmark
+    public ByteBuffer encodeIntoBuffer() throws Throwable {
+        ENCODE_TO.invokeExact(record, buffer, 0);
+        return buffer;
+    }
+
+    @Benchmark
+    public StringBuilder decodeIntoHolder() throws Throwable {
+        Object decoded = (Object) READ_FROM.invokeExact(holder, buffer, 0);
+        line.setLength(0);
+        return (StringBuilder) APPEND_LAST_NAME.invokeExact(decoded, line);
+    }
+}